@@ -0,0 +1,13 @@
+#!/bin/sh
+# Runs the self-contained CLI built with: mvn -Pcli verify
+# The Class Data Sharing archive is only used if it matches the jar, the
+# JVM silently falls back to normal class loading otherwise.
+DIR=$(cd "$(dirname "$0")" && pwd)
+JAR=$(ls "$DIR"/target/cmd-validate-*-cli.jar 2>/dev/null | head -n 1)
+if [ -z "$JAR" ]
+then
+	echo "Build the CLI first: mvn -Pcli verify"
+	exit 1;
+fi
+
+exec java -XX:SharedArchiveFile="$DIR/target/cmd-validate-cli.jsa" -Xshare:auto $JAVA_OPTS -jar "$JAR" "$@"
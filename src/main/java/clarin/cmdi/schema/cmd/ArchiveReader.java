@@ -0,0 +1,302 @@
+package clarin.cmdi.schema.cmd;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Reads the CMD profiles/components (*.xml) from gzip files, zip archives and
+ * (optionally gzipped) tar archives as streams, without unpacking them to
+ * disk. The entries are named after the archive and the path inside it, e.g.,
+ * {@code components.zip!/c_123.xml}.
+ */
+final class ArchiveReader {
+
+    /**
+     * Handles the entries of an archive in the order they are stored.
+     */
+    interface EntryHandler {
+
+        /**
+         * @param name The name of the entry
+         * @param content The content of the entry, only valid during the call
+         * @throws IOException
+         */
+        void entry(String name, InputStream content) throws IOException;
+    }
+
+    private static final int TAR_BLOCK = 512;
+
+    private ArchiveReader() {
+    }
+
+    /**
+     * @param file The name of a file
+     * @return Is the file compressed or an archive that can be read?
+     */
+    static boolean isArchive(String file) {
+        final String name = file.toLowerCase(Locale.ROOT);
+        return name.endsWith(".gz") || name.endsWith(".tgz") || name.endsWith(".zip") || name.endsWith(".tar");
+    }
+
+    /**
+     * Read the *.xml entries of a gzip file or an archive. A gzip file that
+     * isn't a tar archive is a single entry, named after the file.
+     *
+     * @param file The gzip file or archive
+     * @param handler Gets the entries
+     * @throws IOException
+     */
+    static void read(Path file, EntryHandler handler) throws IOException {
+        final String name = file.toString();
+        final String lowerName = name.toLowerCase(Locale.ROOT);
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file), 65536)) {
+            if (lowerName.endsWith(".tar.gz") || lowerName.endsWith(".tgz")) {
+                readTar(name, new GZIPInputStream(in, 65536), handler);
+            } else if (lowerName.endsWith(".gz")) {
+                handler.entry(name, new GZIPInputStream(in, 65536));
+            } else if (lowerName.endsWith(".zip")) {
+                readZip(name, new ZipInputStream(in), handler);
+            } else if (lowerName.endsWith(".tar")) {
+                readTar(name, in, handler);
+            } else {
+                throw new IOException("Unsupported archive: " + name);
+            }
+        }
+    }
+
+    private static void readZip(String archive, ZipInputStream zip, EntryHandler handler) throws IOException {
+        for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+            if (!entry.isDirectory() && isCandidate(entry.getName())) {
+                handler.entry(archive + "!/" + entry.getName(), new UnclosableInputStream(zip));
+            }
+        }
+    }
+
+    /**
+     * Read a tar archive in the ustar format, including the GNU and POSIX
+     * extensions for long names.
+     */
+    private static void readTar(String archive, InputStream tar, EntryHandler handler) throws IOException {
+        final byte[] header = new byte[TAR_BLOCK];
+        String longName = null;
+        while (true) {
+            if (!readBlock(tar, header)) {
+                return;
+            }
+            if (isZero(header)) {
+                // end of archive
+                return;
+            }
+            final long size = parseSize(header);
+            final char type = (char) header[156];
+            final long padding = (TAR_BLOCK - size % TAR_BLOCK) % TAR_BLOCK;
+            if (type == 'L' || type == 'x') {
+                // GNU long name or POSIX extended header for the next entry
+                final String data = readString(tar, size);
+                skipFully(tar, padding);
+                longName = type == 'L' ? trimNul(data) : paxPath(data, longName);
+                continue;
+            }
+            String name = longName;
+            longName = null;
+            if (name == null) {
+                name = field(header, 0, 100);
+                if ("ustar".equals(field(header, 257, 6).trim()) && header[345] != 0) {
+                    name = field(header, 345, 155) + "/" + name;
+                }
+            }
+            if ((type == '0' || type == 0 || type == '7') && isCandidate(name)) {
+                final EntryInputStream content = new EntryInputStream(tar, size);
+                handler.entry(archive + "!/" + name, content);
+                skipFully(tar, content.remaining);
+            } else {
+                skipFully(tar, size);
+            }
+            skipFully(tar, padding);
+        }
+    }
+
+    private static boolean isCandidate(String name) {
+        return name.toLowerCase(Locale.ROOT).endsWith(".xml");
+    }
+
+    private static boolean readBlock(InputStream in, byte[] block) throws IOException {
+        int read = 0;
+        while (read < block.length) {
+            final int n = in.read(block, read, block.length - read);
+            if (n < 0) {
+                if (read == 0) {
+                    return false;
+                }
+                throw new EOFException("Truncated tar header");
+            }
+            read += n;
+        }
+        return true;
+    }
+
+    private static boolean isZero(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parse the size of an entry, in octal or, for large entries, in the GNU
+     * base-256 encoding.
+     */
+    private static long parseSize(byte[] header) throws IOException {
+        long size = 0;
+        if ((header[124] & 0x80) != 0) {
+            for (int i = 125; i < 136; i++) {
+                size = (size << 8) | (header[i] & 0xff);
+            }
+            return size;
+        }
+        final String octal = field(header, 124, 12).trim();
+        try {
+            return octal.isEmpty() ? 0 : Long.parseLong(octal, 8);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid tar header: size " + octal);
+        }
+    }
+
+    private static String field(byte[] header, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && header[end] != 0) {
+            end++;
+        }
+        return new String(header, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    private static String trimNul(String value) {
+        final int nul = value.indexOf('\0');
+        return nul < 0 ? value : value.substring(0, nul);
+    }
+
+    /**
+     * Get the path from POSIX extended header records ("length key=value\n").
+     */
+    private static String paxPath(String records, String defaultPath) {
+        String path = defaultPath;
+        for (String record : records.split("\n")) {
+            final int space = record.indexOf(' ');
+            if (space >= 0 && record.startsWith("path=", space + 1)) {
+                path = record.substring(space + 6);
+            }
+        }
+        return path;
+    }
+
+    private static String readString(InputStream in, long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Invalid tar header: size " + size);
+        }
+        final byte[] data = new byte[(int) size];
+        int read = 0;
+        while (read < data.length) {
+            final int n = in.read(data, read, data.length - read);
+            if (n < 0) {
+                throw new EOFException("Truncated tar entry");
+            }
+            read += n;
+        }
+        return new String(data, StandardCharsets.UTF_8);
+    }
+
+    private static void skipFully(InputStream in, long n) throws IOException {
+        while (n > 0) {
+            final long skipped = in.skip(n);
+            if (skipped > 0) {
+                n -= skipped;
+            } else if (in.read() < 0) {
+                throw new EOFException("Truncated tar entry");
+            } else {
+                n--;
+            }
+        }
+    }
+
+    /**
+     * Keeps a parser from closing the archive stream at the end of an entry.
+     */
+    private static class UnclosableInputStream extends FilterInputStream {
+
+        UnclosableInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * The content of a tar entry, ignoring close.
+     */
+    private static final class EntryInputStream extends UnclosableInputStream {
+
+        private long remaining;
+
+        EntryInputStream(InputStream in, long size) {
+            super(in);
+            this.remaining = size;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            final int b = super.read();
+            if (b < 0) {
+                throw new EOFException("Truncated tar entry");
+            }
+            remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            final int n = super.read(b, off, (int) Math.min(len, remaining));
+            if (n < 0) {
+                throw new EOFException("Truncated tar entry");
+            }
+            remaining -= n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            final long skipped = super.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(super.available(), remaining);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,400 @@
+package clarin.cmdi.schema.cmd;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Validates the files listed in a manifest, or one shard of them, and writes
+ * the results as JSON Lines. A checkpoint file records the files that have
+ * been done, so a rerun after a crash continues where the previous run
+ * stopped. The result files of all shards can be merged into one summary.
+ *
+ * The manifest lists one file per line; empty lines and lines starting with #
+ * are skipped. Shard i of n (1 &lt;= i &lt;= n) takes every n-th file, starting
+ * with the i-th, so all shards should be run with the same manifest. Like on
+ * the command line, a file can also be an archive, whose entries are then
+ * checkpointed one by one, and the files are validated on a number of
+ * threads, see {@link ValidationPool}.
+ *
+ * A run that is killed can leave an incomplete last line in the result file
+ * and the checkpoint. A rerun cuts these lines off before it appends to the
+ * files, and a file whose result was cut off isn't in the checkpoint either,
+ * as a file is only added to the checkpoint once its result is written.
+ *
+ * Only valid and invalid files are added to the checkpoint. A file that
+ * failed, e.g., on an IO error, or timed out is validated again by a rerun.
+ */
+final class BulkValidation {
+
+    private final Validator validator;
+    private final Set<String> patterns;
+    private final int shard;
+    private final int shards;
+    private final int threads;
+
+    /**
+     * @param validator The initialized Validator to share the schema with
+     * @param patterns The Schematron patterns to check, null for the phase
+     * @param shard The shard to validate, 1-based
+     * @param shards The number of shards
+     * @param threads The number of documents to validate in parallel
+     */
+    BulkValidation(Validator validator, Set<String> patterns, int shard, int shards, int threads) {
+        if (shards < 1 || shard < 1 || shard > shards) {
+            throw new IllegalArgumentException("Invalid shard " + shard + "/" + shards);
+        }
+        this.validator = validator;
+        this.patterns = patterns;
+        this.shard = shard;
+        this.shards = shards;
+        this.threads = threads;
+    }
+
+    /**
+     * @return Default name of the result file of the shard
+     */
+    String getDefaultResults() {
+        return "results-" + shard + "-of-" + shards + ".jsonl";
+    }
+
+    /**
+     * Validate the files of the shard that aren't in the checkpoint yet.
+     *
+     * @param manifest The list of files
+     * @param results The result file, appended to
+     * @param checkpoint The checkpoint file, appended to
+     * @param progress Where to report the totals
+     * @throws IOException
+     */
+    void run(Path manifest, Path results, Path checkpoint, PrintStream progress) throws IOException {
+        truncateToLastLine(results);
+        truncateToLastLine(checkpoint);
+        final Set<String> done = new HashSet<>();
+        if (Files.exists(checkpoint)) {
+            done.addAll(Files.readAllLines(checkpoint, StandardCharsets.UTF_8));
+        }
+        int index = 0;
+        final int[] skipped = {0};
+        final int[] validated = {0};
+        try (BufferedReader in = Files.newBufferedReader(manifest, StandardCharsets.UTF_8);
+                OutputStream resultStream = new FileOutputStream(results.toFile(), true);
+                final ReportWriter resultWriter = ReportWriter.Format.JSONL.newWriter(resultStream);
+                final Writer checkpointWriter = new OutputStreamWriter(new FileOutputStream(checkpoint.toFile(), true), StandardCharsets.UTF_8)) {
+            final ReportWriter report = new ReportWriter() {
+                @Override
+                public void write(ValidationResult result) throws IOException {
+                    // the result first, so a crash in between leads to a duplicate instead of a gap
+                    resultWriter.write(result);
+                    if (result.getStatus() == ValidationResult.Status.VALID || result.getStatus() == ValidationResult.Status.INVALID) {
+                        checkpointWriter.write(result.getDocument());
+                        checkpointWriter.write('\n');
+                        checkpointWriter.flush();
+                    }
+                    validated[0]++;
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+            try (final ValidationPool pool = new ValidationPool(validator, patterns, report, threads)) {
+                for (String line = in.readLine(); line != null; line = in.readLine()) {
+                    final String f = line.trim();
+                    if (f.isEmpty() || f.startsWith("#")) {
+                        continue;
+                    }
+                    if (index++ % shards != shard - 1) {
+                        continue;
+                    }
+                    if (ArchiveReader.isArchive(f)) {
+                        // the entries are checkpointed, so a rerun continues inside the archive
+                        final String systemId = Paths.get(f).toUri().toString();
+                        ArchiveReader.read(Paths.get(f), new ArchiveReader.EntryHandler() {
+                            @Override
+                            public void entry(String name, InputStream content) throws IOException {
+                                if (done.contains(name)) {
+                                    skipped[0]++;
+                                } else {
+                                    pool.validate(name, systemId, content);
+                                }
+                            }
+                        });
+                    } else if (done.contains(f)) {
+                        skipped[0]++;
+                    } else {
+                        pool.validate(f, new File(f));
+                    }
+                }
+            }
+        }
+        progress.println("CMD validate shard " + shard + "/" + shards + ": " + validated[0] + " validated, " + skipped[0] + " skipped (checkpoint)");
+    }
+
+    /**
+     * Cut off an incomplete last line, i.e., the bytes after the last line
+     * feed, of a file that a killed run appended to.
+     *
+     * @param file The file, which might not exist
+     * @throws IOException
+     */
+    static void truncateToLastLine(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            long length = raf.length();
+            while (length > 0) {
+                raf.seek(length - 1);
+                if (raf.read() == '\n') {
+                    break;
+                }
+                length--;
+            }
+            if (length < raf.length()) {
+                raf.setLength(length);
+            }
+        }
+    }
+
+    /**
+     * Merge result files into a summary, written as a JSON object. If a
+     * document occurs more than once, e.g., after a crash, its last result
+     * counts.
+     *
+     * @param results The result files
+     * @param out Where to write the summary
+     * @throws IOException
+     */
+    static void merge(List<String> results, PrintStream out) throws IOException {
+        final Map<String, String[]> documents = new HashMap<>();
+        int duplicates = 0;
+        int unreadable = 0;
+        for (String f : results) {
+            try (BufferedReader in = Files.newBufferedReader(new File(f).toPath(), StandardCharsets.UTF_8)) {
+                for (String line = in.readLine(); line != null; line = in.readLine()) {
+                    final String document;
+                    final String[] record;
+                    try {
+                        final Map<String, String> members = parseRecord(line);
+                        document = members.get("document");
+                        record = new String[]{members.get("status"), members.get("errors"), members.get("warnings")};
+                        if (document == null || record[0] == null) {
+                            throw new IllegalArgumentException("No document or status");
+                        }
+                        // a NumberFormatException for missing or malformed counts
+                        Long.parseLong(record[1]);
+                        Long.parseLong(record[2]);
+                    } catch (IllegalArgumentException e) {
+                        unreadable++;
+                        continue;
+                    }
+                    if (documents.put(document, record) != null) {
+                        duplicates++;
+                    }
+                }
+            }
+        }
+        final Map<String, Integer> statuses = new HashMap<>();
+        long errors = 0;
+        long warnings = 0;
+        for (String[] record : documents.values()) {
+            final Integer count = statuses.get(record[0]);
+            statuses.put(record[0], count == null ? 1 : count + 1);
+            errors += Long.parseLong(record[1]);
+            warnings += Long.parseLong(record[2]);
+        }
+        final StringBuilder json = new StringBuilder("{\"documents\":").append(documents.size());
+        for (ValidationResult.Status status : ValidationResult.Status.values()) {
+            final Integer count = statuses.get(status.label());
+            json.append(",\"").append(status.label()).append("\":").append(count == null ? 0 : count);
+        }
+        json.append(",\"errors\":").append(errors);
+        json.append(",\"warnings\":").append(warnings);
+        json.append(",\"duplicates\":").append(duplicates);
+        json.append(",\"unreadable\":").append(unreadable);
+        json.append('}');
+        out.println(json);
+    }
+
+    /**
+     * Read the members of a result record, a JSON object, by name. Only the
+     * string, number, boolean and null values are returned (strings
+     * unescaped, the others as written); nested objects and arrays, like the
+     * messages, are skipped and map to null.
+     *
+     * @param json A line of a result file
+     * @return The members
+     * @throws IllegalArgumentException if the line isn't a JSON object
+     */
+    static Map<String, String> parseRecord(String json) {
+        return new RecordParser(json).parse();
+    }
+
+    /**
+     * A parser for {@link #parseRecord(String)}.
+     */
+    private static final class RecordParser {
+
+        private final String json;
+        private int pos = 0;
+
+        RecordParser(String json) {
+            this.json = json;
+        }
+
+        Map<String, String> parse() {
+            final Map<String, String> members = new HashMap<>();
+            expect('{');
+            if (peek() == '}') {
+                pos++;
+            } else {
+                char next;
+                do {
+                    final String name = string();
+                    expect(':');
+                    members.put(name, value());
+                    next = next();
+                } while (next == ',');
+                if (next != '}') {
+                    throw error("',' or '}'");
+                }
+            }
+            if (peek() != 0) {
+                throw error("the end of the line");
+            }
+            return members;
+        }
+
+        private String value() {
+            final char c = peek();
+            if (c == '"') {
+                return string();
+            }
+            if (c == '{' || c == '[') {
+                skipNested();
+                return null;
+            }
+            final int start = pos;
+            while (pos < json.length() && "+-.0123456789Eaeflnrstu".indexOf(json.charAt(pos)) >= 0) {
+                pos++;
+            }
+            final String value = json.substring(start, pos);
+            if (value.isEmpty()) {
+                throw error("a value");
+            }
+            return "null".equals(value) ? null : value;
+        }
+
+        private void skipNested() {
+            int depth = 0;
+            do {
+                final char c = peek();
+                if (c == '"') {
+                    string();
+                } else if (c == 0) {
+                    throw error("the end of " + (depth > 0 ? "an array or object" : "a value"));
+                } else {
+                    pos++;
+                    if (c == '{' || c == '[') {
+                        depth++;
+                    } else if (c == '}' || c == ']') {
+                        depth--;
+                    }
+                }
+            } while (depth > 0);
+        }
+
+        private String string() {
+            expect('"');
+            final StringBuilder value = new StringBuilder();
+            while (true) {
+                if (pos >= json.length()) {
+                    throw error("'\"'");
+                }
+                final char c = json.charAt(pos++);
+                if (c == '"') {
+                    return value.toString();
+                }
+                if (c != '\\') {
+                    value.append(c);
+                    continue;
+                }
+                if (pos >= json.length()) {
+                    throw error("an escape");
+                }
+                final char e = json.charAt(pos++);
+                switch (e) {
+                    case 'b':
+                        value.append('\b');
+                        break;
+                    case 'f':
+                        value.append('\f');
+                        break;
+                    case 'n':
+                        value.append('\n');
+                        break;
+                    case 'r':
+                        value.append('\r');
+                        break;
+                    case 't':
+                        value.append('\t');
+                        break;
+                    case 'u':
+                        if (pos + 4 > json.length()) {
+                            throw error("4 hex digits");
+                        }
+                        value.append((char) Integer.parseInt(json.substring(pos, pos + 4), 16));
+                        pos += 4;
+                        break;
+                    default:
+                        value.append(e);
+                }
+            }
+        }
+
+        private void expect(char c) {
+            if (next() != c) {
+                throw error("'" + c + "'");
+            }
+        }
+
+        /**
+         * @return The next character that isn't whitespace, 0 at the end
+         */
+        private char next() {
+            final char c = peek();
+            if (c != 0) {
+                pos++;
+            }
+            return c;
+        }
+
+        private char peek() {
+            while (pos < json.length() && Character.isWhitespace(json.charAt(pos))) {
+                pos++;
+            }
+            return pos < json.length() ? json.charAt(pos) : 0;
+        }
+
+        private IllegalArgumentException error(String expected) {
+            return new IllegalArgumentException("Expected " + expected + " at " + pos + " of the result record");
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package clarin.cmdi.schema.cmd;
+
+/**
+ * A handle to stop a validation run, either explicitly from another thread or
+ * when a deadline has passed. The validation checks the handle while parsing
+ * the document, while validating it against the XSD and while checking the
+ * Schematron rules, and stops with a {@link ValidationCancelledException}.
+ *
+ * A handle is meant for a single validation run, as the deadline doesn't
+ * reset.
+ */
+public final class Cancellation {
+
+    /**
+     * The deadline, in terms of {@link System#nanoTime()}
+     */
+    private final long deadline;
+    /**
+     * Is there a deadline?
+     */
+    private final boolean timed;
+    private volatile boolean cancelled = false;
+
+    /**
+     * Creates a handle without a deadline, which only stops the validation
+     * when {@link #cancel()} is called.
+     */
+    public Cancellation() {
+        this.deadline = 0;
+        this.timed = false;
+    }
+
+    private Cancellation(long timeoutMillis) {
+        this.deadline = System.nanoTime() + timeoutMillis * 1000000L;
+        this.timed = true;
+    }
+
+    /**
+     * Creates a handle that stops the validation when a timeout, starting
+     * now, has passed, or when {@link #cancel()} is called.
+     *
+     * @param timeoutMillis The timeout in milliseconds
+     * @return The handle
+     */
+    public static Cancellation withTimeout(long timeoutMillis) {
+        if (timeoutMillis <= 0) {
+            throw new IllegalArgumentException("Invalid timeout: " + timeoutMillis);
+        }
+        return new Cancellation(timeoutMillis);
+    }
+
+    /**
+     * Stop the validation as soon as possible. Can be called from any thread.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * @return Has the validation been cancelled or has the deadline passed?
+     */
+    public boolean isCancelled() {
+        return cancelled || isTimedOut();
+    }
+
+    /**
+     * @return Has the deadline passed?
+     */
+    public boolean isTimedOut() {
+        return timed && System.nanoTime() - deadline >= 0;
+    }
+
+    /**
+     * @throws ValidationCancelledException if the validation has been
+     * cancelled or the deadline has passed
+     */
+    public void check() throws ValidationCancelledException {
+        if (cancelled) {
+            throw new ValidationCancelledException("Validation cancelled", false);
+        }
+        if (isTimedOut()) {
+            throw new ValidationCancelledException("Validation timed out", true);
+        }
+    }
+}
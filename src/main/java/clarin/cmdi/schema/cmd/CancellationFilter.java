@@ -0,0 +1,68 @@
+package clarin.cmdi.schema.cmd;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+/**
+ * Passes SAX events on, but stops the stream with a SAXException once the
+ * validation has been cancelled. Used between the parser and Saxon, between
+ * Saxon and the XSD validator and between the Schematron XSLT and its result,
+ * as none of them can be interrupted otherwise.
+ */
+final class CancellationFilter extends XMLFilterImpl {
+
+    private final Cancellation cancellation;
+
+    /**
+     * A filter between a parser and its content handler.
+     *
+     * @param parent The parser
+     * @param cancellation The cancellation to check
+     */
+    CancellationFilter(XMLReader parent, Cancellation cancellation) {
+        super(parent);
+        this.cancellation = cancellation;
+    }
+
+    /**
+     * A filter in front of a content handler.
+     *
+     * @param handler The content handler
+     * @param cancellation The cancellation to check
+     */
+    CancellationFilter(ContentHandler handler, Cancellation cancellation) {
+        this.cancellation = cancellation;
+        setContentHandler(handler);
+    }
+
+    private void check() throws SAXException {
+        if (cancellation.isCancelled()) {
+            try {
+                cancellation.check();
+            } catch (ValidationCancelledException e) {
+                throw new SAXException(e);
+            }
+        }
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+        check();
+        super.startElement(uri, localName, qName, atts);
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) throws SAXException {
+        check();
+        super.endElement(uri, localName, qName);
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) throws SAXException {
+        check();
+        super.characters(ch, start, length);
+    }
+}
@@ -0,0 +1,134 @@
+package clarin.cmdi.schema.cmd;
+
+import clarin.cmdi.schema.cmd.Validator.Message;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Writes a JUnit XML report, i.e., a testsuite with a testcase per validated
+ * document. An invalid document is reported as a failure, a document that could
+ * not be validated as an error, and warnings end up in the system-out of the
+ * testcase.
+ *
+ * As the testcases are streamed, the testsuite element doesn't carry the
+ * (optional) tests/failures/errors totals. Characters that can't occur in XML
+ * 1.0, e.g., control characters in a message, are replaced by U+FFFD.
+ */
+class JUnitReportWriter implements ReportWriter {
+
+    static final String SUITE_NAME = "cmd-validate";
+
+    private final XMLStreamWriter out;
+
+    JUnitReportWriter(OutputStream out) throws IOException {
+        try {
+            this.out = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+            this.out.writeStartDocument("UTF-8", "1.0");
+            this.out.writeCharacters("\n");
+            this.out.writeStartElement("testsuite");
+            this.out.writeAttribute("name", SUITE_NAME);
+            this.out.writeCharacters("\n");
+            this.out.flush();
+        } catch (XMLStreamException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    @Override
+    public void write(ValidationResult result) throws IOException {
+        try {
+            out.writeCharacters("  ");
+            out.writeStartElement("testcase");
+            out.writeAttribute("classname", SUITE_NAME);
+            out.writeAttribute("name", xml(result.getDocument()));
+            out.writeAttribute("time", String.format(Locale.ROOT, "%.3f", result.getDurationMillis() / 1000.0));
+            switch (result.getStatus()) {
+                case INVALID:
+                    out.writeStartElement("failure");
+                    out.writeAttribute("type", result.getStatus().label());
+                    out.writeAttribute("message", result.getErrorCount() + " error(s)");
+                    out.writeCharacters(xml(format(result, true)));
+                    out.writeEndElement();
+                    break;
+                case FAILED:
+                    out.writeStartElement("error");
+                    out.writeAttribute("type", result.getFailure() == null ? result.getStatus().label() : result.getFailure().getClass().getName());
+                    out.writeAttribute("message", result.getFailure() == null ? "" : xml(String.valueOf(result.getFailure().getMessage())));
+                    out.writeEndElement();
+                    break;
+                case TIMEOUT:
+                case CANCELLED:
+                    out.writeStartElement("error");
+                    out.writeAttribute("type", result.getStatus().label());
+                    out.writeAttribute("message", result.getFailure() == null ? "" : xml(String.valueOf(result.getFailure().getMessage())));
+                    out.writeEndElement();
+                    break;
+                default:
+                    break;
+            }
+            final String warnings = format(result, false);
+            if (!warnings.isEmpty()) {
+                out.writeStartElement("system-out");
+                out.writeCharacters(xml(warnings));
+                out.writeEndElement();
+            }
+            out.writeEndElement();
+            out.writeCharacters("\n");
+            out.flush();
+        } catch (XMLStreamException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            out.writeEndElement();
+            out.writeEndDocument();
+            out.writeCharacters("\n");
+            out.flush();
+            out.close();
+        } catch (XMLStreamException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    /**
+     * Format either the errors or the warnings of a result.
+     */
+    private static String format(ValidationResult result, boolean errors) {
+        StringBuilder sb = new StringBuilder();
+        for (Message msg : result.getMessages()) {
+            if (msg.isError() == errors) {
+                sb.append(msg.isError() ? "ERROR" : "WARNING");
+                if (msg.getLocation() != null) {
+                    sb.append(" at ").append(msg.getLocation());
+                }
+                sb.append("\n  ").append(msg.getText()).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Replace the characters that aren't allowed in XML 1.0, e.g., control
+     * characters and unpaired surrogates, by U+FFFD.
+     */
+    static String xml(String value) {
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length();) {
+            final int c = value.codePointAt(i);
+            if (c == '\t' || c == '\n' || c == '\r' || (c >= 0x20 && c <= 0xD7FF) || (c >= 0xE000 && c <= 0xFFFD) || c >= 0x10000) {
+                sb.appendCodePoint(c);
+            } else {
+                sb.append('\uFFFD');
+            }
+            i += Character.charCount(c);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,107 @@
+package clarin.cmdi.schema.cmd;
+
+import clarin.cmdi.schema.cmd.Validator.Message;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes a JSON Lines report, i.e., one JSON object per validated document:
+ *
+ * <pre>
+ * {"document":"...","status":"invalid","valid":false,"durationMs":12,"errors":1,"warnings":0,"messages":[{"error":true,"context":"...","test":"...","location":"...","text":"..."}]}
+ * </pre>
+ *
+ * A document whose validation failed has an additional "failure" member.
+ */
+class JsonLinesReportWriter implements ReportWriter {
+
+    private final Writer out;
+
+    JsonLinesReportWriter(OutputStream out) {
+        this.out = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void write(ValidationResult result) throws IOException {
+        StringBuilder json = new StringBuilder(256);
+        json.append("{\"document\":");
+        appendString(json, result.getDocument());
+        json.append(",\"status\":");
+        appendString(json, result.getStatus().label());
+        json.append(",\"valid\":").append(result.getStatus() == ValidationResult.Status.VALID);
+        json.append(",\"durationMs\":").append(result.getDurationMillis());
+        json.append(",\"errors\":").append(result.getErrorCount());
+        json.append(",\"warnings\":").append(result.getWarningCount());
+        if (result.getFailure() != null) {
+            json.append(",\"failure\":");
+            appendString(json, result.getFailure().toString());
+        }
+        json.append(",\"messages\":[");
+        boolean first = true;
+        for (Message msg : result.getMessages()) {
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            json.append("{\"error\":").append(msg.isError());
+            json.append(",\"context\":");
+            appendString(json, msg.getContext());
+            json.append(",\"test\":");
+            appendString(json, msg.getTest());
+            json.append(",\"location\":");
+            appendString(json, msg.getLocation());
+            json.append(",\"text\":");
+            appendString(json, msg.getText());
+            json.append('}');
+        }
+        json.append("]}\n");
+        out.write(json.toString());
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Append a string as a JSON string literal, or null.
+     */
+    static void appendString(StringBuilder json, String value) {
+        if (value == null) {
+            json.append("null");
+            return;
+        }
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        json.append('"');
+    }
+}
@@ -0,0 +1,698 @@
+package clarin.cmdi.schema.cmd;
+
+import clarin.cmdi.schema.cmd.Validator.Message;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import net.sf.saxon.s9api.Axis;
+import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.s9api.QName;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XPathCompiler;
+import net.sf.saxon.s9api.XPathExecutable;
+import net.sf.saxon.s9api.XPathSelector;
+import net.sf.saxon.s9api.XdmEmptySequence;
+import net.sf.saxon.s9api.XdmAtomicValue;
+import net.sf.saxon.s9api.XdmItem;
+import net.sf.saxon.s9api.XdmMap;
+import net.sf.saxon.s9api.XdmNode;
+import net.sf.saxon.s9api.XdmNodeKind;
+import net.sf.saxon.s9api.XdmSequenceIterator;
+import net.sf.saxon.s9api.XdmValue;
+import net.sf.saxon.type.UType;
+
+/**
+ * A Schematron schema compiled into Saxon XPath expressions, as an alternative
+ * to generating and running the SVRL XSLT.
+ *
+ * The rule contexts are evaluated once per document to build an index from
+ * each node to the rule that fires for it in each pattern, i.e., the first
+ * matching rule of the pattern. A single walk over the elements in document
+ * order then evaluates the asserts of the fired rules, with the lets and
+ * asserts of the abstract rules they extend (sch:extends) in their place. The
+ * messages are reported in the same order, and with the same context, test,
+ * location and role, as the SVRL XSLT does.
+ *
+ * Only rules whose context selects elements or the document are supported,
+ * and current() can't be used in a rule context. The SVRL XSLT also visits
+ * comments and processing instructions, but never attributes, and binds
+ * current() in a context to the node being matched. Instead of skipping
+ * such rules, or firing them differently, a schema with them is rejected
+ * when it is compiled.
+ *
+ * The XSLT functions current() and key() used by the CMD Schematron rules are
+ * rewritten into plain XPath: current() refers to the node the rule fired for,
+ * and key() looks the values up in a map from use value to nodes, which is
+ * built once per document for every xsl:key, like the hashed index of the XSLT
+ * processor.
+ * Reports (sch:report) are, like in {@link Validator#getMessages()}, ignored.
+ *
+ * Every pattern is compiled separately, so a validation can be limited to a
+ * phase or to an explicit set of patterns, and then only evaluates the rules,
+ * keys and variables these patterns need.
+ *
+ * Instances are immutable and thread-safe.
+ */
+final class NativeSchematron {
+
+    static final String SCH_NS = "http://purl.oclc.org/dsdl/schematron";
+    static final String XSL_NS = "http://www.w3.org/1999/XSL/Transform";
+    /**
+     * Namespace of the variables introduced by rewriting XPath expressions
+     */
+    static final String VAR_NS = "http://www.clarin.eu/cmd-validate/schematron";
+    static final QName CURRENT = new QName(VAR_NS, "current");
+
+    static final QName SCH_SCHEMA = new QName(SCH_NS, "schema");
+    static final QName SCH_NS_DECL = new QName(SCH_NS, "ns");
+    static final QName SCH_PHASE = new QName(SCH_NS, "phase");
+    static final QName SCH_ACTIVE = new QName(SCH_NS, "active");
+    static final QName SCH_PATTERN = new QName(SCH_NS, "pattern");
+    static final QName SCH_RULE = new QName(SCH_NS, "rule");
+    static final QName SCH_ASSERT = new QName(SCH_NS, "assert");
+    static final QName SCH_EXTENDS = new QName(SCH_NS, "extends");
+    static final QName SCH_LET = new QName(SCH_NS, "let");
+    static final QName SCH_VALUE_OF = new QName(SCH_NS, "value-of");
+    static final QName SCH_NAME = new QName(SCH_NS, "name");
+    static final QName XSL_KEY = new QName(XSL_NS, "key");
+
+    /**
+     * The kinds of nodes the rules can fire for
+     */
+    static final UType ELEMENT_OR_DOCUMENT = UType.ELEMENT.union(UType.DOCUMENT);
+
+    /**
+     * All patterns, by id in document order
+     */
+    private final Map<String, Pattern> patterns;
+    /**
+     * Per document variables, i.e., the xsl:key indexes and the schema and
+     * pattern level sch:let variables, in order of declaration
+     */
+    private final List<Variable> globals;
+    /**
+     * The ids of the active patterns per phase
+     */
+    private final Map<String, Set<String>> phases;
+    /**
+     * The default phase (might be null)
+     */
+    private final String defaultPhase;
+
+    private NativeSchematron(Map<String, Pattern> patterns, List<Variable> globals, Map<String, Set<String>> phases, String defaultPhase) {
+        this.patterns = patterns;
+        this.globals = globals;
+        this.phases = phases;
+        this.defaultPhase = defaultPhase;
+    }
+
+    /**
+     * Compile a Schematron schema.
+     *
+     * @param schema The Schematron schema, i.e., with includes and abstract
+     * patterns resolved
+     * @param processor The Saxon processor to compile the expressions with,
+     * and of the documents to validate
+     * @return The compiled schema
+     * @throws ValidatorException if the schema uses a construct that isn't
+     * supported, or an expression doesn't compile
+     */
+    static NativeSchematron compile(XdmNode schema, Processor processor) throws ValidatorException {
+        final XdmNode root = firstChild(schema, SCH_SCHEMA);
+        if (root == null) {
+            throw new ValidatorException("Not a Schematron schema");
+        }
+        final Compiler compiler = new Compiler(processor.newXPathCompiler());
+        compiler.declareNamespaces(root);
+
+        final List<Variable> globals = new ArrayList<>();
+        for (XdmNode key : children(root, XSL_KEY)) {
+            globals.add(compiler.key(key));
+        }
+        for (XdmNode let : children(root, SCH_LET)) {
+            globals.add(compiler.let(let));
+        }
+
+        final Map<String, Pattern> patterns = new LinkedHashMap<>();
+        for (XdmNode pattern : children(root, SCH_PATTERN)) {
+            if ("true".equals(pattern.getAttributeValue(new QName("abstract")))) {
+                continue;
+            }
+            for (XdmNode let : children(pattern, SCH_LET)) {
+                globals.add(compiler.let(let));
+            }
+            final List<Rule> rules = new ArrayList<>();
+            for (XdmNode rule : children(pattern, SCH_RULE)) {
+                if (rule.getAttributeValue(new QName("context")) != null) {
+                    rules.add(compiler.rule(rule));
+                }
+            }
+            final String id = pattern.getAttributeValue(new QName("id"));
+            patterns.put(id == null ? "#" + patterns.size() : id, new Pattern(rules, globals));
+        }
+
+        final Map<String, Set<String>> phases = new HashMap<>();
+        for (XdmNode phase : children(root, SCH_PHASE)) {
+            final Set<String> active = new HashSet<>();
+            for (XdmNode act : children(phase, SCH_ACTIVE)) {
+                active.add(act.getAttributeValue(new QName("pattern")));
+            }
+            phases.put(phase.getAttributeValue(new QName("id")), Collections.unmodifiableSet(active));
+        }
+        return new NativeSchematron(Collections.unmodifiableMap(patterns), Collections.unmodifiableList(globals),
+                phases, root.getAttributeValue(new QName("defaultPhase")));
+    }
+
+    /**
+     * @param phase A phase, null for the default phase
+     * @return The ids of the patterns of the phase, or null for all patterns
+     * @throws ValidatorException if the phase is unknown
+     */
+    Set<String> getPhasePatterns(String phase) throws ValidatorException {
+        if (phase == null) {
+            phase = defaultPhase;
+        }
+        if (phase == null || "#ALL".equals(phase)) {
+            return null;
+        }
+        final Set<String> active = phases.get(phase);
+        if (active == null) {
+            throw new ValidatorException("Unknown Schematron phase: " + phase);
+        }
+        return active;
+    }
+
+    /**
+     * @return The ids of all patterns, in document order
+     */
+    Set<String> getPatternIds() {
+        return patterns.keySet();
+    }
+
+    /**
+     * Validate a document.
+     *
+     * @param doc The document
+     * @param patternIds The patterns to evaluate, null for all patterns
+     * @param messages The list to add the messages to
+     * @param cancellation The cancellation to check (might be null)
+     * @return Is the document valid, i.e., didn't any error assert fail?
+     * @throws SaxonApiException
+     * @throws ValidatorException if a pattern is unknown
+     * @throws ValidationCancelledException if the validation is cancelled
+     */
+    boolean validate(XdmNode doc, Set<String> patternIds, List<Message> messages, Cancellation cancellation) throws SaxonApiException, ValidatorException {
+        final List<Pattern> active = new ArrayList<>(patterns.size());
+        final Set<Variable> needed = new HashSet<>();
+        for (Map.Entry<String, Pattern> pattern : patterns.entrySet()) {
+            if (patternIds == null || patternIds.contains(pattern.getKey())) {
+                active.add(pattern.getValue());
+                needed.addAll(pattern.getValue().globals);
+            }
+        }
+        if (patternIds != null && !patterns.keySet().containsAll(patternIds)) {
+            final Set<String> unknown = new HashSet<>(patternIds);
+            unknown.removeAll(patterns.keySet());
+            throw new ValidatorException("Unknown Schematron pattern(s): " + unknown);
+        }
+
+        final Map<QName, XdmValue> env = new HashMap<>();
+        env.put(CURRENT, doc);
+        for (Variable var : globals) {
+            if (needed.contains(var)) {
+                check(cancellation);
+                env.put(var.name, var.use == null ? var.value.evaluate(doc, env) : index(var, doc, env));
+            }
+        }
+
+        // index: node -> fired rule per pattern
+        final int n = active.size();
+        final Map<XdmNode, Rule[]> fired = new HashMap<>();
+        for (int p = 0; p < n; p++) {
+            for (Rule rule : active.get(p).rules) {
+                check(cancellation);
+                for (XdmItem item : rule.context.evaluate(doc, env)) {
+                    // only elements and the document, see Compiler.rule()
+                    final XdmNode node = (XdmNode) item;
+                    Rule[] rules = fired.get(node);
+                    if (rules == null) {
+                        rules = new Rule[n];
+                        fired.put(node, rules);
+                    }
+                    if (rules[p] == null) {
+                        rules[p] = rule;
+                    }
+                }
+            }
+        }
+
+        // walk the document
+        final List<List<Message>> reports = new ArrayList<>(n);
+        for (int p = 0; p < n; p++) {
+            reports.add(new ArrayList<Message>());
+        }
+        boolean valid = true;
+        final XdmSequenceIterator nodes = doc.axisIterator(Axis.DESCENDANT_OR_SELF);
+        while (nodes.hasNext()) {
+            final XdmNode node = (XdmNode) nodes.next();
+            final Rule[] rules = fired.get(node);
+            if (rules == null) {
+                continue;
+            }
+            check(cancellation);
+            for (int p = 0; p < n; p++) {
+                if (rules[p] != null) {
+                    valid &= rules[p].check(node, env, reports.get(p));
+                }
+            }
+        }
+        for (List<Message> report : reports) {
+            messages.addAll(report);
+        }
+        return valid;
+    }
+
+    /**
+     * Build the index of an xsl:key for a document: a map from every value of
+     * the use expression to the matching nodes with that value, in document
+     * order. Like in XSLT, values are compared as map keys, so untyped values
+     * match strings.
+     */
+    private static XdmMap index(Variable key, XdmNode doc, Map<QName, XdmValue> env) throws SaxonApiException {
+        final Map<XdmAtomicValue, List<XdmNode>> index = new HashMap<>();
+        for (XdmItem item : key.value.evaluate(doc, env)) {
+            final XdmNode node = (XdmNode) item;
+            for (XdmItem value : key.use.evaluate(node, env)) {
+                List<XdmNode> nodes = index.get((XdmAtomicValue) value);
+                if (nodes == null) {
+                    nodes = new ArrayList<>(1);
+                    index.put((XdmAtomicValue) value, nodes);
+                }
+                if (nodes.isEmpty() || nodes.get(nodes.size() - 1) != node) {
+                    nodes.add(node);
+                }
+            }
+        }
+        final Map<XdmAtomicValue, XdmValue> map = new HashMap<>(index.size() * 2);
+        for (Map.Entry<XdmAtomicValue, List<XdmNode>> entry : index.entrySet()) {
+            map.put(entry.getKey(), new XdmValue(entry.getValue()));
+        }
+        return new XdmMap(map);
+    }
+
+    private static void check(Cancellation cancellation) throws ValidationCancelledException {
+        if (cancellation != null) {
+            cancellation.check();
+        }
+    }
+
+    /**
+     * Compute the location of a node the way the SVRL XSLT does, i.e.,
+     * /name[position] for every ancestor-or-self element.
+     */
+    static String location(XdmNode node) {
+        if (node.getNodeKind() != XdmNodeKind.ELEMENT) {
+            return "/";
+        }
+        final StringBuilder path = new StringBuilder();
+        for (XdmNode elem = node; elem != null && elem.getNodeKind() == XdmNodeKind.ELEMENT; elem = elem.getParent()) {
+            final QName name = elem.getNodeName();
+            int position = 1;
+            final XdmSequenceIterator siblings = elem.axisIterator(Axis.PRECEDING_SIBLING, name);
+            while (siblings.hasNext()) {
+                siblings.next();
+                position++;
+            }
+            final String step;
+            if (name.getNamespaceURI().isEmpty()) {
+                step = "/" + name.getLocalName() + "[" + position + "]";
+            } else {
+                step = "/*:" + name.getLocalName() + "[namespace-uri()='" + name.getNamespaceURI() + "'][" + position + "]";
+            }
+            path.insert(0, step);
+        }
+        return path.toString();
+    }
+
+    private static XdmNode firstChild(XdmNode parent, QName name) {
+        final XdmSequenceIterator it = parent.axisIterator(Axis.CHILD, name);
+        return it.hasNext() ? (XdmNode) it.next() : null;
+    }
+
+    private static List<XdmNode> children(XdmNode parent, QName name) {
+        final List<XdmNode> children = new ArrayList<>();
+        final XdmSequenceIterator it = parent.axisIterator(Axis.CHILD, name);
+        while (it.hasNext()) {
+            children.add((XdmNode) it.next());
+        }
+        return children;
+    }
+
+    /**
+     * A compiled XPath expression and the variables it needs.
+     */
+    private static final class Expression {
+
+        final String source;
+        final XPathExecutable executable;
+        final List<QName> variables;
+
+        Expression(String source, XPathExecutable executable) {
+            this.source = source;
+            this.executable = executable;
+            final List<QName> vars = new ArrayList<>();
+            for (Iterator<QName> it = executable.iterateExternalVariables(); it.hasNext();) {
+                vars.add(it.next());
+            }
+            this.variables = vars;
+        }
+
+        XPathSelector load(XdmItem context, Map<QName, XdmValue> env) throws SaxonApiException {
+            final XPathSelector selector = executable.load();
+            selector.setContextItem(context);
+            for (QName var : variables) {
+                final XdmValue value = env.get(var);
+                selector.setVariable(var, value == null ? XdmEmptySequence.getInstance() : value);
+            }
+            return selector;
+        }
+
+        XdmValue evaluate(XdmItem context, Map<QName, XdmValue> env) throws SaxonApiException {
+            return load(context, env).evaluate();
+        }
+
+        boolean test(XdmItem context, Map<QName, XdmValue> env) throws SaxonApiException {
+            return load(context, env).effectiveBooleanValue();
+        }
+    }
+
+    /**
+     * A variable, or the index of an xsl:key: then the value is the matching
+     * nodes and use the atomized use expression.
+     */
+    private static final class Variable {
+
+        final QName name;
+        final Expression value;
+        final Expression use;
+
+        Variable(QName name, Expression value, Expression use) {
+            this.name = name;
+            this.value = value;
+            this.use = use;
+        }
+    }
+
+    private static final class Pattern {
+
+        final List<Rule> rules;
+        /**
+         * The per document variables the rules need, directly or indirectly
+         */
+        final Set<Variable> globals = new HashSet<>();
+
+        Pattern(List<Rule> rules, List<Variable> declared) {
+            this.rules = rules;
+            final Set<QName> names = new HashSet<>();
+            for (Rule rule : rules) {
+                rule.collectVariables(names);
+            }
+            for (int i = declared.size() - 1; i >= 0; i--) {
+                final Variable var = declared.get(i);
+                if (names.contains(var.name)) {
+                    globals.add(var);
+                    names.addAll(var.value.variables);
+                    if (var.use != null) {
+                        names.addAll(var.use.variables);
+                    }
+                }
+            }
+        }
+    }
+
+    private static final class Rule {
+
+        final String contextSource;
+        final Expression context;
+        final boolean warning;
+        final List<Variable> lets;
+        final List<Assert> asserts;
+
+        Rule(String contextSource, Expression context, boolean warning, List<Variable> lets, List<Assert> asserts) {
+            this.contextSource = contextSource;
+            this.context = context;
+            this.warning = warning;
+            this.lets = lets;
+            this.asserts = asserts;
+        }
+
+        void collectVariables(Set<QName> names) {
+            names.addAll(context.variables);
+            for (Variable let : lets) {
+                names.addAll(let.value.variables);
+            }
+            for (Assert a : asserts) {
+                names.addAll(a.test.variables);
+                for (Object part : a.parts) {
+                    if (part instanceof Expression) {
+                        names.addAll(((Expression) part).variables);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Evaluate the asserts for a node the rule fired for.
+         *
+         * @return false if an error assert failed
+         */
+        boolean check(XdmNode node, Map<QName, XdmValue> globals, List<Message> report) throws SaxonApiException {
+            Map<QName, XdmValue> env = globals;
+            env.put(CURRENT, node);
+            if (!lets.isEmpty()) {
+                env = new HashMap<>(globals);
+                for (Variable let : lets) {
+                    env.put(let.name, let.value.evaluate(node, env));
+                }
+            }
+            boolean valid = true;
+            for (Assert a : asserts) {
+                if (!a.test.test(node, env)) {
+                    Message msg = new Message();
+                    msg.context = contextSource;
+                    msg.test = a.test.source;
+                    msg.location = location(node);
+                    msg.error = !warning;
+                    msg.text = a.text(node, env);
+                    report.add(msg);
+                    valid &= warning;
+                }
+            }
+            return valid;
+        }
+    }
+
+    private static final class Assert {
+
+        final Expression test;
+        /**
+         * The message: literal strings and expressions for sch:value-of and
+         * sch:name
+         */
+        final List<Object> parts;
+
+        Assert(Expression test, List<Object> parts) {
+            this.test = test;
+            this.parts = parts;
+        }
+
+        String text(XdmNode node, Map<QName, XdmValue> env) throws SaxonApiException {
+            final StringBuilder text = new StringBuilder();
+            for (Object part : parts) {
+                if (part instanceof Expression) {
+                    boolean first = true;
+                    for (XdmItem item : ((Expression) part).evaluate(node, env)) {
+                        if (!first) {
+                            text.append(' ');
+                        }
+                        first = false;
+                        text.append(item.getStringValue());
+                    }
+                } else {
+                    text.append(part);
+                }
+            }
+            return text.toString();
+        }
+    }
+
+    /**
+     * Compiles the parts of the schema, keeping track of the declared
+     * namespaces and variables.
+     */
+    private static final class Compiler {
+
+        final XPathCompiler xpath;
+        /**
+         * The variables holding the key indexes, by key name
+         */
+        final Map<String, String> keys = new LinkedHashMap<>();
+        /**
+         * The variables declared so far. The XPath compiler allows undeclared
+         * variables, so that every expression only refers to the variables it
+         * uses, and we check them ourselves.
+         */
+        final Set<QName> declared = new HashSet<>();
+
+        Compiler(XPathCompiler xpath) {
+            this.xpath = xpath;
+            this.xpath.setAllowUndeclaredVariables(true);
+            this.declared.add(CURRENT);
+        }
+
+        void declareNamespaces(XdmNode root) {
+            final XdmSequenceIterator namespaces = root.axisIterator(Axis.NAMESPACE);
+            while (namespaces.hasNext()) {
+                final XdmNode ns = (XdmNode) namespaces.next();
+                final String prefix = ns.getNodeName() == null ? "" : ns.getNodeName().getLocalName();
+                if (!prefix.isEmpty()) {
+                    xpath.declareNamespace(prefix, ns.getStringValue());
+                }
+            }
+            for (XdmNode ns : children(root, SCH_NS_DECL)) {
+                xpath.declareNamespace(ns.getAttributeValue(new QName("prefix")), ns.getAttributeValue(new QName("uri")));
+            }
+        }
+
+        Expression compile(String source) throws ValidatorException {
+            return compile(source, source);
+        }
+
+        Expression compile(String source, String expression) throws ValidatorException {
+            final Expression compiled;
+            try {
+                compiled = new Expression(source, xpath.compile(XPathRewriter.rewrite(expression, keys)));
+            } catch (SaxonApiException ex) {
+                throw new ValidatorException("Can't compile Schematron expression: " + source, ex);
+            }
+            for (QName var : compiled.variables) {
+                if (!declared.contains(var)) {
+                    throw new ValidatorException("Undeclared variable $" + var + " in Schematron expression: " + source);
+                }
+            }
+            return compiled;
+        }
+
+        Variable key(XdmNode key) throws ValidatorException {
+            final String name = key.getAttributeValue(new QName("name"));
+            final QName var = new QName(VAR_NS, "key" + keys.size());
+            final String match = key.getAttributeValue(new QName("match"));
+            final String use = key.getAttributeValue(new QName("use"));
+            final Expression nodes = compile(match, "descendant-or-self::node()/(" + match + ")");
+            final Expression values = compile(use, "data((" + use + "))");
+            keys.put(name, "$Q{" + VAR_NS + "}" + var.getLocalName());
+            declared.add(var);
+            return new Variable(var, nodes, values);
+        }
+
+        Variable let(XdmNode let) throws ValidatorException {
+            final QName var = new QName(let.getAttributeValue(new QName("name")));
+            final Expression value = compile(let.getAttributeValue(new QName("value")));
+            declared.add(var);
+            return new Variable(var, value, null);
+        }
+
+        Rule rule(XdmNode rule) throws ValidatorException {
+            final String context = rule.getAttributeValue(new QName("context"));
+            final Expression nodes = compile(context, "descendant-or-self::node()/(" + context + ")");
+            if (nodes.variables.contains(CURRENT)) {
+                throw new ValidatorException("The native Schematron engine doesn't support current() in a rule context: " + context);
+            }
+            // the static type, e.g., element() for a union of element names, node() if it might select attributes
+            if (!ELEMENT_OR_DOCUMENT.subsumes(nodes.executable.getResultItemType().getUnderlyingItemType().getUType())) {
+                throw new ValidatorException("The native Schematron engine only supports rule contexts that select elements: " + context);
+            }
+            final List<Variable> lets = new ArrayList<>();
+            final List<Assert> asserts = new ArrayList<>();
+            body(rule, lets, asserts, new HashSet<String>());
+            return new Rule(context, nodes, "warning".equals(rule.getAttributeValue(new QName("role"))), lets, asserts);
+        }
+
+        /**
+         * Compile the lets and asserts of a rule in document order, and the
+         * ones of an abstract rule where the rule extends it.
+         *
+         * @param extending The ids of the abstract rules being expanded
+         */
+        void body(XdmNode rule, List<Variable> lets, List<Assert> asserts, Set<String> extending) throws ValidatorException {
+            final XdmSequenceIterator it = rule.axisIterator(Axis.CHILD);
+            while (it.hasNext()) {
+                final XdmNode child = (XdmNode) it.next();
+                if (SCH_LET.equals(child.getNodeName())) {
+                    lets.add(let(child));
+                } else if (SCH_ASSERT.equals(child.getNodeName())) {
+                    final List<Object> parts = new ArrayList<>();
+                    text(child, parts);
+                    asserts.add(new Assert(compile(child.getAttributeValue(new QName("test"))), parts));
+                } else if (SCH_EXTENDS.equals(child.getNodeName())) {
+                    final String id = child.getAttributeValue(new QName("rule"));
+                    final XdmNode base = abstractRule(rule, id);
+                    if (base == null) {
+                        throw new ValidatorException("Unknown abstract Schematron rule: " + id);
+                    }
+                    if (!extending.add(id)) {
+                        throw new ValidatorException("Abstract Schematron rule extends itself: " + id);
+                    }
+                    body(base, lets, asserts, extending);
+                    extending.remove(id);
+                }
+            }
+        }
+
+        /**
+         * Find an abstract rule like the SVRL XSLT does: in the pattern of the
+         * rule that extends it, or else anywhere in the schema.
+         */
+        static XdmNode abstractRule(XdmNode rule, String id) {
+            final List<XdmNode> patterns = new ArrayList<>();
+            patterns.add(rule.getParent());
+            patterns.addAll(children(rule.getParent().getParent(), SCH_PATTERN));
+            for (XdmNode pattern : patterns) {
+                for (XdmNode candidate : children(pattern, SCH_RULE)) {
+                    if ("true".equals(candidate.getAttributeValue(new QName("abstract"))) && id != null && id.equals(candidate.getAttributeValue(new QName("id")))) {
+                        return candidate;
+                    }
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Collect the literal text and the expressions of a message.
+         */
+        void text(XdmNode elem, List<Object> parts) throws ValidatorException {
+            final XdmSequenceIterator it = elem.axisIterator(Axis.CHILD);
+            while (it.hasNext()) {
+                final XdmNode child = (XdmNode) it.next();
+                if (child.getNodeKind() == XdmNodeKind.TEXT) {
+                    parts.add(child.getStringValue());
+                } else if (child.getNodeKind() == XdmNodeKind.ELEMENT) {
+                    if (SCH_VALUE_OF.equals(child.getNodeName())) {
+                        parts.add(compile(child.getAttributeValue(new QName("select"))));
+                    } else if (SCH_NAME.equals(child.getNodeName())) {
+                        final String path = child.getAttributeValue(new QName("path"));
+                        parts.add(compile(path == null ? "name()" : "name(" + path + ")"));
+                    } else {
+                        text(child, parts);
+                    }
+                }
+            }
+        }
+    }
+}
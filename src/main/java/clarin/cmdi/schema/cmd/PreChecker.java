@@ -0,0 +1,227 @@
+package clarin.cmdi.schema.cmd;
+
+import java.io.ByteArrayInputStream;
+import java.io.CharArrayReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.io.PushbackReader;
+import java.io.Reader;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLResolver;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.Source;
+import javax.xml.transform.stream.StreamSource;
+
+/**
+ * A cheap check whether a document can be a CMD profile/component at all,
+ * before any tree is built: it streams the prolog and the root element with
+ * StAX. The rest of the document is checked for well-formedness, if asked
+ * for, by the parser that loads it, see {@link Validator.PreCheck#WELLFORMED}.
+ *
+ * Streams are read once: the part read by the check is pushed back. Documents
+ * that are only known by their system identifier, e.g., a StreamSource of a
+ * File, are opened by the check, and then validated from the same stream. A
+ * relative system identifier is taken relative to the working directory.
+ * Other sources, e.g., a DOMSource, are not checked.
+ *
+ * DTDs are allowed, but external DTDs and other external entities aren't
+ * read.
+ */
+final class PreChecker {
+
+    /**
+     * The name of the root element of a CMD profile/component, which has no
+     * namespace
+     */
+    static final String ROOT = "ComponentSpec";
+    /**
+     * The namespaces of CMD records start with this
+     */
+    static final String CMD_RECORD_NAMESPACE = "http://www.clarin.eu/cmd/";
+    /**
+     * The number of bytes or characters to read to find the root element. If
+     * it isn't found within them, the document passes the check.
+     */
+    static final int SNIFF_LIMIT = 16 * 1024;
+
+    /**
+     * A StAX factory per thread, as factories aren't guaranteed to be thread
+     * safe
+     */
+    private static final ThreadLocal<XMLInputFactory> FACTORY = new ThreadLocal<XMLInputFactory>() {
+        @Override
+        protected XMLInputFactory initialValue() {
+            XMLInputFactory factory = XMLInputFactory.newInstance();
+            factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+            // an empty external DTD, instead of loading it from the network
+            factory.setXMLResolver(new XMLResolver() {
+                @Override
+                public Object resolveEntity(String publicID, String systemID, String baseURI, String namespace) {
+                    return new ByteArrayInputStream(new byte[0]);
+                }
+            });
+            return factory;
+        }
+    };
+
+    private Source source;
+
+    /**
+     * @param source The document to check
+     */
+    PreChecker(Source source) {
+        this.source = source;
+    }
+
+    /**
+     * @return The document to validate after the check, which replaces the
+     * checked source, as its stream might have been read
+     */
+    Source getSource() {
+        return source;
+    }
+
+    /**
+     * Check the document.
+     *
+     * @return Why the document can't be a CMD profile/component, or null if
+     * it passes the check
+     * @throws IOException
+     */
+    String check() throws IOException {
+        if (!(source instanceof StreamSource)) {
+            return null;
+        }
+        final StreamSource stream = (StreamSource) source;
+        if (stream.getInputStream() != null) {
+            return checkInputStream(stream);
+        }
+        if (stream.getReader() != null) {
+            return checkReader(stream);
+        }
+        if (stream.getSystemId() != null) {
+            final String systemId = resolve(stream.getSystemId());
+            final InputStream in = new URL(systemId).openStream();
+            boolean parsedLater = false;
+            try {
+                final String problem = checkInputStream(new StreamSource(in, systemId));
+                // the parser closes the stream after loading the pushed back document
+                parsedLater = problem == null;
+                return problem;
+            } finally {
+                if (!parsedLater) {
+                    in.close();
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Resolve a system identifier against the working directory, like the
+     * parsers do, and take one that isn't a URI as a file name.
+     */
+    private static String resolve(String systemId) {
+        try {
+            return new File("").getAbsoluteFile().toURI().resolve(new URI(systemId)).toString();
+        } catch (URISyntaxException ex) {
+            return new File(systemId).toURI().toString();
+        }
+    }
+
+    private String checkInputStream(StreamSource stream) throws IOException {
+        final PushbackInputStream pushback = new PushbackInputStream(stream.getInputStream(), SNIFF_LIMIT);
+        final byte[] prefix = new byte[SNIFF_LIMIT];
+        int length = 0;
+        while (length < prefix.length) {
+            final int n = pushback.read(prefix, length, prefix.length - length);
+            if (n < 0) {
+                break;
+            }
+            length += n;
+        }
+        pushback.unread(prefix, 0, length);
+        source = new StreamSource(pushback, stream.getSystemId());
+        return sniff(new ByteArrayInputStream(prefix, 0, length), length == prefix.length);
+    }
+
+    private String checkReader(StreamSource stream) throws IOException {
+        final PushbackReader pushback = new PushbackReader(stream.getReader(), SNIFF_LIMIT);
+        final char[] prefix = new char[SNIFF_LIMIT];
+        int length = 0;
+        while (length < prefix.length) {
+            final int n = pushback.read(prefix, length, prefix.length - length);
+            if (n < 0) {
+                break;
+            }
+            length += n;
+        }
+        pushback.unread(prefix, 0, length);
+        source = new StreamSource(pushback, stream.getSystemId());
+        try {
+            return check(FACTORY.get().createXMLStreamReader(new CharArrayReader(prefix, 0, length)), length == prefix.length);
+        } catch (XMLStreamException ex) {
+            return notWellFormed(ex);
+        }
+    }
+
+    /**
+     * @param truncated Is the input only the start of the document?
+     */
+    private String sniff(InputStream in, boolean truncated) {
+        try {
+            return check(FACTORY.get().createXMLStreamReader(in), truncated);
+        } catch (XMLStreamException ex) {
+            return notWellFormed(ex);
+        }
+    }
+
+    private String check(XMLStreamReader reader, boolean truncated) {
+        try {
+            try {
+                while (reader.hasNext()) {
+                    if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+                        return checkRoot(reader);
+                    }
+                }
+                return "The document is empty, it has no root element";
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException ex) {
+            // the root element might be beyond the start that was read
+            return truncated ? null : notWellFormed(ex);
+        }
+    }
+
+    private String checkRoot(XMLStreamReader reader) throws XMLStreamException {
+        final String namespace = reader.getNamespaceURI();
+        final String name = reader.getLocalName();
+        if (ROOT.equals(name) && (namespace == null || namespace.isEmpty())) {
+            return null;
+        }
+        if ("CMD".equals(name) && namespace != null && namespace.startsWith(CMD_RECORD_NAMESPACE)) {
+            return "The document is a CMD record (root element CMD in namespace " + namespace + "), not a CMD profile/component specification (root element " + ROOT + ")";
+        }
+        return "The root element is " + (namespace == null || namespace.isEmpty() ? "" : "{" + namespace + "}") + name + ", instead of " + ROOT + " (without a namespace), so the document isn't a CMD profile/component specification";
+    }
+
+    private static String notWellFormed(XMLStreamException ex) {
+        return notWellFormed(ex.getMessage());
+    }
+
+    /**
+     * @param error The parser's description of the error
+     * @return The problem of a document that isn't well-formed
+     */
+    static String notWellFormed(String error) {
+        return "The document is not well-formed XML: " + error;
+    }
+}
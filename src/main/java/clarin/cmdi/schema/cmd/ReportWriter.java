@@ -0,0 +1,70 @@
+package clarin.cmdi.schema.cmd;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+
+/**
+ * Writes validation results to a stream, one document at a time.
+ *
+ * Implementations write each result as soon as it is passed in and keep no
+ * per-document state, so memory use does not depend on the number of validated
+ * documents. Closing the writer finishes the report but leaves the underlying
+ * stream open.
+ */
+public interface ReportWriter extends Closeable {
+
+    /**
+     * Write (and flush) the report of a single document.
+     *
+     * @param result The validation result
+     * @throws IOException
+     */
+    void write(ValidationResult result) throws IOException;
+
+    /**
+     * The supported report formats.
+     */
+    public enum Format {
+        /**
+         * Human readable, as printed by {@link Validator#printMessages}.
+         */
+        TEXT,
+        /**
+         * JSON Lines, i.e., one JSON object per document.
+         */
+        JSONL,
+        /**
+         * JUnit XML, i.e., one testcase per document.
+         */
+        JUNIT;
+
+        /**
+         * Create a writer for this format.
+         *
+         * @param out The stream to write to
+         * @return A report writer
+         * @throws IOException
+         */
+        public ReportWriter newWriter(OutputStream out) throws IOException {
+            switch (this) {
+                case JSONL:
+                    return new JsonLinesReportWriter(out);
+                case JUNIT:
+                    return new JUnitReportWriter(out);
+                default:
+                    return new TextReportWriter(out);
+            }
+        }
+
+        /**
+         * @param name Case insensitive name of a format, e.g., "jsonl"
+         * @return The format
+         * @throws IllegalArgumentException if there is no such format
+         */
+        public static Format forName(String name) {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+}
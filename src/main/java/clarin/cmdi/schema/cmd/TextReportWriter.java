@@ -0,0 +1,39 @@
+package clarin.cmdi.schema.cmd;
+
+import clarin.cmdi.schema.cmd.Validator.Message;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes the human readable report of the command line interface.
+ */
+class TextReportWriter implements ReportWriter {
+
+    private final PrintWriter out;
+
+    TextReportWriter(OutputStream out) {
+        this.out = new PrintWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void write(ValidationResult result) throws IOException {
+        out.print("CMD validate[" + result.getDocument() + "] " + result.getStatus().label());
+        if (result.getFailure() != null) {
+            out.print(": " + result.getFailure());
+        }
+        out.println();
+        for (Message msg : result.getMessages()) {
+            out.println("" + (msg.isError() ? "ERROR" : "WARNING") + (msg.getLocation() != null ? " at " + msg.getLocation() : ""));
+            out.println("  " + msg.getText());
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.flush();
+    }
+}
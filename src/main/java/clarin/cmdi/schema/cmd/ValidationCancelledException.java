@@ -0,0 +1,21 @@
+package clarin.cmdi.schema.cmd;
+
+/**
+ * Thrown when a validation run is stopped by its {@link Cancellation}.
+ */
+public class ValidationCancelledException extends ValidatorException {
+
+    private final boolean timedOut;
+
+    public ValidationCancelledException(String message, boolean timedOut) {
+        super(message);
+        this.timedOut = timedOut;
+    }
+
+    /**
+     * @return Did the deadline pass, instead of an explicit cancel?
+     */
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+}
@@ -0,0 +1,170 @@
+package clarin.cmdi.schema.cmd;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import javax.xml.transform.Source;
+import javax.xml.transform.stream.StreamSource;
+
+/**
+ * Validates documents on a number of worker threads, each with its own
+ * Validator sharing the schema of a template, and writes the results to a
+ * report in the order they are done.
+ *
+ * The number of documents waiting for a worker is bounded, so reading an
+ * archive doesn't run ahead of the validation. With a single thread the
+ * documents are validated on the calling thread, straight from the stream.
+ */
+final class ValidationPool implements Closeable {
+
+    private final Validator template;
+    private final Set<String> patterns;
+    private final ReportWriter report;
+    private final ExecutorService workers;
+    /**
+     * Permits for the documents that are queued or being validated
+     */
+    private final Semaphore pending;
+    /**
+     * A Validator per worker thread, sharing the schema of the template
+     */
+    private final ThreadLocal<Validator> validators = new ThreadLocal<Validator>() {
+        @Override
+        protected Validator initialValue() {
+            return new Validator(template);
+        }
+    };
+    /**
+     * The first error of writing the report (might be null)
+     */
+    private volatile IOException reportError = null;
+
+    /**
+     * @param template The initialized Validator to share the schema with
+     * @param patterns The Schematron patterns to check, null for the phase
+     * @param report Where to report the results
+     * @param threads The number of documents to validate in parallel
+     */
+    ValidationPool(Validator template, Set<String> patterns, ReportWriter report, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Invalid number of threads: " + threads);
+        }
+        this.template = template;
+        this.patterns = patterns;
+        this.report = report;
+        this.workers = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+        this.pending = new Semaphore(threads * 4);
+    }
+
+    /**
+     * Validate a file. With more than one thread the file is read and
+     * validated later on a worker thread.
+     *
+     * @param document The name of the document
+     * @param file The file
+     * @throws IOException
+     */
+    void validate(String document, File file) throws IOException {
+        if (workers == null) {
+            checkReport();
+            write(template.validate(document, new StreamSource(file), patterns));
+            return;
+        }
+        submit(document, new StreamSource(file));
+    }
+
+    /**
+     * Validate a document from a stream. With more than one thread the content
+     * is read into memory first, and the document is validated later on a
+     * worker thread.
+     *
+     * @param document The name of the document
+     * @param systemId The system identifier of the document (might be null)
+     * @param content The document, read but not closed
+     * @throws IOException
+     */
+    void validate(String document, String systemId, InputStream content) throws IOException {
+        if (workers == null) {
+            checkReport();
+            write(template.validate(document, new StreamSource(content, systemId), patterns));
+            return;
+        }
+        submit(document, new StreamSource(new ByteArrayInputStream(content.readAllBytes()), systemId));
+    }
+
+    /**
+     * Queue a document for the workers, waiting while too many are pending.
+     */
+    private void submit(final String document, final Source source) throws IOException {
+        checkReport();
+        try {
+            pending.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a worker", e);
+        }
+        try {
+            workers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        write(validators.get().validate(document, source, patterns));
+                    } catch (IOException e) {
+                        if (reportError == null) {
+                            reportError = e;
+                        }
+                    } finally {
+                        pending.release();
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            pending.release();
+            throw e;
+        }
+    }
+
+    private void write(ValidationResult result) throws IOException {
+        synchronized (report) {
+            report.write(result);
+            if (result.getStatus() == ValidationResult.Status.FAILED) {
+                System.err.println("CMD validate[" + result.getDocument() + "] failed:");
+                result.getFailure().printStackTrace(System.err);
+            }
+        }
+    }
+
+    private void checkReport() throws IOException {
+        if (reportError != null) {
+            throw reportError;
+        }
+    }
+
+    /**
+     * Wait until all documents have been validated.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (workers != null) {
+            workers.shutdown();
+            try {
+                while (!workers.awaitTermination(1, TimeUnit.MINUTES)) {
+                    // keep waiting, a bulk run may take long
+                }
+            } catch (InterruptedException e) {
+                workers.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+        checkReport();
+    }
+}
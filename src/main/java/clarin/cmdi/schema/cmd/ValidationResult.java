@@ -0,0 +1,124 @@
+package clarin.cmdi.schema.cmd;
+
+import clarin.cmdi.schema.cmd.Validator.Message;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The outcome of validating a single CMD profile/component, as reported by the
+ * command line interface.
+ */
+public final class ValidationResult {
+
+    /**
+     * The possible outcomes of a validation run.
+     */
+    public enum Status {
+        VALID, INVALID, FAILED,
+        /**
+         * The validation was stopped as it took longer than its timeout.
+         */
+        TIMEOUT,
+        /**
+         * The validation was stopped by an explicit cancel.
+         */
+        CANCELLED;
+
+        /**
+         * @return lower case name of the status, as used in the reports
+         */
+        public String label() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    /**
+     * The name of the validated document, e.g., its file name.
+     */
+    private final String document;
+    /**
+     * The outcome of the validation.
+     */
+    private final Status status;
+    /**
+     * The messages of the validation run (never null).
+     */
+    private final List<Message> messages;
+    /**
+     * Wall clock time spent on the document, in milliseconds.
+     */
+    private final long durationMillis;
+    /**
+     * The exception that made the validation fail (might be null).
+     */
+    private final Throwable failure;
+
+    public ValidationResult(String document, Status status, List<Message> messages, long durationMillis, Throwable failure) {
+        this.document = document;
+        this.status = status;
+        this.messages = messages == null ? Collections.<Message>emptyList() : messages;
+        this.durationMillis = durationMillis;
+        this.failure = failure;
+    }
+
+    /**
+     * @return the document
+     */
+    public String getDocument() {
+        return document;
+    }
+
+    /**
+     * @return the status
+     */
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * @return the messages
+     */
+    public List<Message> getMessages() {
+        return messages;
+    }
+
+    /**
+     * @return the duration in milliseconds
+     */
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    /**
+     * @return the failure
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    /**
+     * @return the number of error messages
+     */
+    public int getErrorCount() {
+        int count = 0;
+        for (Message msg : messages) {
+            if (msg.isError()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of warning messages
+     */
+    public int getWarningCount() {
+        return messages.size() - getErrorCount();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %s (%d messages, %d ms)", getDocument(), getStatus().label(), getMessages().size(), getDurationMillis());
+    }
+}
@@ -0,0 +1,253 @@
+package clarin.cmdi.schema.cmd;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.xml.transform.stream.StreamSource;
+
+/**
+ * A daemon that keeps warm Validators around and validates files on request,
+ * so clients don't pay the JVM startup and the loading of the XSD and
+ * Schematron on every call.
+ *
+ * The server only listens on the loopback interface. A client sends the paths
+ * of the files to validate, one per line, terminated by an empty line or by
+ * closing its output. The server answers with a report in the configured
+ * format and closes the connection. Paths are resolved against the working
+ * directory of the server, so clients should send absolute paths.
+ *
+ * There is no authentication: any local user can connect. So the server only
+ * reads files below its root directories, after resolving symbolic links and
+ * "..". Other paths, and paths that don't exist, are reported as failed
+ * without telling them apart. And a connection can't hold up a worker for
+ * long: a client that doesn't send a line within the read timeout, a line
+ * longer than {@link #MAX_LINE} characters or more than {@link #MAX_FILES}
+ * files gets a failed record for its request, after which the connection is
+ * closed.
+ */
+final class ValidationServer implements Closeable {
+
+    /**
+     * The default time to wait for the next line of a request
+     */
+    static final int READ_TIMEOUT_MILLIS = 10000;
+    /**
+     * The maximum length of a line of a request, i.e., of a path
+     */
+    static final int MAX_LINE = 4096;
+    /**
+     * The maximum number of files per request
+     */
+    static final int MAX_FILES = 10000;
+
+    private final Validator template;
+    private final ReportWriter.Format format;
+    private final Set<String> patterns;
+    /**
+     * The directories the files to validate have to be in, as real paths
+     */
+    private final List<Path> roots = new ArrayList<>();
+    private final ServerSocket serverSocket;
+    private final ExecutorService workers;
+    private volatile int readTimeout = READ_TIMEOUT_MILLIS;
+    /**
+     * A Validator per worker thread, sharing the schema of the template
+     */
+    private final ThreadLocal<Validator> validators = new ThreadLocal<Validator>() {
+        @Override
+        protected Validator initialValue() {
+            return new Validator(template);
+        }
+    };
+
+    /**
+     * @param template The initialized Validator to share the schema with
+     * @param format The report format
+     * @param patterns The Schematron patterns to check, null for the phase
+     * @param roots The directories the files to validate have to be in
+     * @param port The local port to listen on, 0 for any free port
+     * @param threads The number of requests to handle in parallel
+     * @throws IOException
+     */
+    ValidationServer(Validator template, ReportWriter.Format format, Set<String> patterns, List<Path> roots, int port, int threads) throws IOException {
+        this.template = template;
+        this.format = format;
+        this.patterns = patterns;
+        for (Path root : roots) {
+            this.roots.add(root.toRealPath());
+        }
+        this.serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        this.workers = Executors.newFixedThreadPool(threads);
+    }
+
+    /**
+     * @return The local port the server listens on
+     */
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * @param millis The time to wait for the next line of a request
+     */
+    void setReadTimeout(int millis) {
+        this.readTimeout = millis;
+    }
+
+    /**
+     * Accept and handle requests until the server is closed.
+     */
+    void serve() {
+        while (!serverSocket.isClosed()) {
+            try {
+                final Socket socket = serverSocket.accept();
+                socket.setSoTimeout(readTimeout);
+                workers.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        handle(socket);
+                    }
+                });
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    System.err.println("CMD validate daemon: " + e);
+                }
+            }
+        }
+    }
+
+    private void handle(Socket socket) {
+        try (Socket s = socket) {
+            final Reader in = new InputStreamReader(new BufferedInputStream(s.getInputStream()), StandardCharsets.UTF_8);
+            final ReportWriter report = format.newWriter(s.getOutputStream());
+            int files = 0;
+            try {
+                for (String line = readLine(in); line != null && !line.trim().isEmpty(); line = readLine(in)) {
+                    if (++files > MAX_FILES) {
+                        throw new RequestException("More than " + MAX_FILES + " files in a request");
+                    }
+                    final String f = line.trim();
+                    final Path path = resolve(f);
+                    if (path == null) {
+                        report.write(new ValidationResult(f, ValidationResult.Status.FAILED, null, 0, new ValidatorException("Not a file below the roots of the daemon: " + f)));
+                        continue;
+                    }
+                    report.write(validators.get().validate(f, new StreamSource(path.toFile()), patterns));
+                }
+            } catch (SocketTimeoutException e) {
+                s.shutdownInput();
+                report.write(new ValidationResult("request", ValidationResult.Status.FAILED, null, 0, new ValidatorException("No line of the request within " + readTimeout + " ms")));
+            } catch (RequestException e) {
+                // drop the rest of the request, so closing doesn't reset the connection before the client read the report
+                s.shutdownInput();
+                report.write(new ValidationResult("request", ValidationResult.Status.FAILED, null, 0, new ValidatorException(e.getMessage())));
+            }
+            report.close();
+            s.shutdownOutput();
+        } catch (IOException e) {
+            System.err.println("CMD validate daemon: " + e);
+        }
+    }
+
+    /**
+     * Read a line of a request, of at most {@link #MAX_LINE} characters.
+     *
+     * @return The line without the line terminator, or null at the end of the
+     * request
+     * @throws RequestException if the line is too long
+     */
+    private static String readLine(Reader in) throws IOException {
+        final StringBuilder line = new StringBuilder();
+        for (int c = in.read(); c >= 0; c = in.read()) {
+            if (c == '\n') {
+                return line.toString();
+            }
+            if (line.length() == MAX_LINE) {
+                throw new RequestException("A line of the request is longer than " + MAX_LINE + " characters");
+            }
+            line.append((char) c);
+        }
+        return line.length() > 0 ? line.toString() : null;
+    }
+
+    /**
+     * A request that exceeds the limits of the server.
+     */
+    private static final class RequestException extends IOException {
+
+        RequestException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * @return The real path of a file below one of the roots, or null if the
+     * file doesn't exist or isn't below a root
+     */
+    private Path resolve(String file) {
+        final Path path;
+        try {
+            path = Paths.get(file).toRealPath();
+        } catch (IOException | InvalidPathException e) {
+            return null;
+        }
+        for (Path root : roots) {
+            if (path.startsWith(root) && !path.equals(root)) {
+                return path;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        workers.shutdown();
+    }
+
+    /**
+     * Send files to a running server and copy its report.
+     *
+     * @param port The local port the server listens on
+     * @param files The files to validate
+     * @param out Where to copy the report to
+     * @throws IOException
+     */
+    static void request(int port, List<String> files, OutputStream out) throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            final Writer request = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+            for (String f : files) {
+                request.write(new File(f).getAbsolutePath());
+                request.write('\n');
+            }
+            request.flush();
+            socket.shutdownOutput();
+            final InputStream response = socket.getInputStream();
+            final byte[] buffer = new byte[8192];
+            for (int n = response.read(buffer); n >= 0; n = response.read(buffer)) {
+                out.write(buffer, 0, n);
+            }
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package clarin.cmdi.schema.cmd;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import javax.xml.transform.stream.StreamSource;
+
+/**
+ * Watches a directory tree and validates the CMD profiles/components (*.xml)
+ * in it, first all of them and then only the ones that are created or
+ * modified. Every event for a file leads to a validation, also when the
+ * modification time didn't change, as file systems that store the time in
+ * seconds give two saves within a second the same time. Events that come in
+ * within {@link #SETTLE_MILLIS} of each other are handled together, so a
+ * file is validated once per batch.
+ */
+final class ValidationWatcher {
+
+    /**
+     * Time to wait for more changes before validating, in milliseconds, as
+     * editors tend to write a file in several steps
+     */
+    static final long SETTLE_MILLIS = 200;
+
+    private final Validator validator;
+    private final ReportWriter report;
+    private final Set<String> patterns;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+
+    /**
+     * @param validator The Validator to use
+     * @param report Where to report the results
+     * @param patterns The Schematron patterns to check, null for the phase
+     * @throws IOException
+     */
+    ValidationWatcher(Validator validator, ReportWriter report, Set<String> patterns) throws IOException {
+        this.validator = validator;
+        this.report = report;
+        this.patterns = patterns;
+        this.watchService = FileSystems.getDefault().newWatchService();
+    }
+
+    /**
+     * Validate the files in a directory tree, and keep validating changed files
+     * until the thread is interrupted.
+     *
+     * @param root The directory to watch
+     * @throws IOException
+     */
+    void watch(Path root) throws IOException {
+        validate(register(root));
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                final Set<Path> changed = new TreeSet<>();
+                WatchKey key = watchService.take();
+                while (key != null) {
+                    final Path dir = directories.get(key);
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+                            continue;
+                        }
+                        final Path path = dir.resolve((Path) event.context());
+                        if (Files.isDirectory(path)) {
+                            changed.addAll(register(path));
+                        } else if (isCandidate(path)) {
+                            changed.add(path);
+                        }
+                    }
+                    if (!key.reset()) {
+                        directories.remove(key);
+                    }
+                    key = watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                validate(changed);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            watchService.close();
+        }
+    }
+
+    /**
+     * Register a directory tree with the watch service.
+     *
+     * @return The candidate files in the tree
+     */
+    private Set<Path> register(Path root) throws IOException {
+        final Set<Path> files = new TreeSet<>();
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                directories.put(dir.register(watchService,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY,
+                        StandardWatchEventKinds.ENTRY_DELETE), dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (isCandidate(file)) {
+                    files.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return files;
+    }
+
+    /**
+     * Validate the files that still exist.
+     */
+    private void validate(Set<Path> files) throws IOException {
+        for (Path file : files) {
+            if (!Files.isRegularFile(file)) {
+                continue;
+            }
+            report.write(validator.validate(file.toString(), new StreamSource(file.toFile()), patterns));
+        }
+    }
+
+    private static boolean isCandidate(Path path) {
+        return path.getFileName().toString().endsWith(".xml");
+    }
+}
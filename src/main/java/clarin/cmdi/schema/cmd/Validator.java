@@ -1,32 +1,37 @@
 package clarin.cmdi.schema.cmd;
 
-import clarin.cmdi.xml.Saxon;
+import clarin.cmdi.xml.SaxonContext;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.List;
+import java.util.Set;
 import javax.xml.XMLConstants;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.Source;
-import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.URIResolver;
+import javax.xml.transform.sax.SAXSource;
 import javax.xml.transform.stream.StreamSource;
 import javax.xml.validation.Schema;
 import javax.xml.validation.SchemaFactory;
-import net.sf.saxon.s9api.DOMDestination;
+import javax.xml.validation.ValidatorHandler;
+import net.sf.saxon.s9api.BuildingContentHandler;
 import net.sf.saxon.s9api.QName;
+import net.sf.saxon.s9api.SAXDestination;
 import net.sf.saxon.s9api.SaxonApiException;
 import net.sf.saxon.s9api.XdmAtomicValue;
 import net.sf.saxon.s9api.XdmDestination;
 import net.sf.saxon.s9api.XdmItem;
 import net.sf.saxon.s9api.XdmNode;
+import net.sf.saxon.s9api.XdmValue;
 import net.sf.saxon.s9api.XsltExecutable;
 import net.sf.saxon.s9api.XsltTransformer;
-import org.w3c.dom.Document;
 import org.w3c.dom.ls.LSResourceResolver;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.XMLReader;
 
 /**
  * The Validator class handles the XSD and Schematron validation of CMD profile
@@ -51,6 +56,14 @@ public class Validator {
      * Parameter to set execution phase on schematron stylesheet
      */
     static final QName SCHEMATRON_PHASE_PARAMETER = new QName("phase");
+    /**
+     * Parameter to set the patterns of the phase added by SelectPatterns.xsl
+     */
+    static final QName SCHEMATRON_PATTERNS_PARAMETER = new QName("patterns");
+    /**
+     * Id of the phase added by SelectPatterns.xsl
+     */
+    static final String SCHEMATRON_PATTERNS_PHASE = "cmd-validate-patterns";
     /**
      * The immutable location of the CMD schema that is used in this instance
      */
@@ -60,6 +73,24 @@ public class Validator {
      * Schematron] stylesheet".
      */
     private XsltExecutable cmdSchematron = null;
+    /**
+     * The Schematron rules extracted from the CMD schema.
+     */
+    private XdmNode cmdSchematronRules = null;
+    /**
+     * The immutable Schematron rules compiled for the native engine.
+     */
+    private NativeSchematron cmdNativeSchematron = null;
+    /**
+     * The compiled Schematron stylesheets for single patterns, by pattern id.
+     * The map is shared with the Validators created from this one, and is the
+     * lock for compiling a pattern.
+     */
+    private java.util.Map<String, XsltExecutable> cmdPatternSchematrons = new java.util.HashMap<String, XsltExecutable>();
+    /**
+     * The ids of the Schematron patterns, in document order.
+     */
+    private List<String> cmdSchematronPatternIds = null;
     /**
      * The "immutable in-memory representation of [the XSD] grammar".
      */
@@ -69,14 +100,30 @@ public class Validator {
      */
     private List<Message> msgList = null;
     /**
-     * The Schematron SVRL validation report
+     * The Schematron SVRL validation reports, one per compiled Schematron XSLT
      */
-    private XdmNode validationReport = null;
+    private List<XdmNode> validationReports = null;
     private LSResourceResolver resourceResolver = null;
     /**
      * Phase to use for schematron validation
      */
     private String schematronPhase;
+    /**
+     * Engine to use for schematron validation
+     */
+    private SchematronEngine schematronEngine = SchematronEngine.XSLT;
+    /**
+     * Timeout of a validation run in milliseconds, 0 for none
+     */
+    private long timeoutMillis = 0;
+    /**
+     * The Saxon processor to use for documents, XSLT and XPath
+     */
+    private SaxonContext saxon = SaxonContext.getDefault();
+    /**
+     * Check to do before the document is loaded
+     */
+    private PreCheck preCheck = PreCheck.NONE;
 
     /**
      * Creates a Validator that uses a specific schema specified by its URL
@@ -88,6 +135,32 @@ public class Validator {
         this.cmdSchemaUri = cmdSchemaUri;
     }
 
+    /**
+     * Creates a Validator that shares the schema, the settings and the already
+     * loaded XSD schema and Schematron XSLT of another Validator. Use
+     * {@link #initialize()} on the other Validator first to make sure nothing
+     * has to be loaded again.
+     *
+     * @param other The Validator to share the schema with
+     */
+    public Validator(Validator other) {
+        this(other.cmdSchemaUri);
+        synchronized (other) {
+            this.cmdSchema = other.cmdSchema;
+            this.cmdSchematron = other.cmdSchematron;
+            this.cmdSchematronRules = other.cmdSchematronRules;
+            this.cmdNativeSchematron = other.cmdNativeSchematron;
+            this.cmdPatternSchematrons = other.cmdPatternSchematrons;
+            this.cmdSchematronPatternIds = other.cmdSchematronPatternIds;
+            this.resourceResolver = other.resourceResolver;
+            this.schematronPhase = other.schematronPhase;
+            this.schematronEngine = other.schematronEngine;
+            this.timeoutMillis = other.timeoutMillis;
+            this.saxon = other.saxon;
+            this.preCheck = other.preCheck;
+        }
+    }
+
     /**
      * Convenience method to build a XSLT transformer from a resource.
      *
@@ -95,10 +168,10 @@ public class Validator {
      * @return An executable XSLT
      * @throws Exception
      */
-    static XsltExecutable buildTransformer(File file) throws ValidatorException {
+    XsltExecutable buildTransformer(File file) throws ValidatorException {
         try {
-            XdmNode xslDoc = Saxon.buildDocument(new javax.xml.transform.stream.StreamSource(file));
-            return Saxon.buildTransformer(xslDoc);
+            XdmNode xslDoc = saxon.buildDocument(new javax.xml.transform.stream.StreamSource(file));
+            return saxon.buildTransformer(xslDoc);
         } catch (SaxonApiException ex) {
             throw new ValidatorException(ex);
         }
@@ -111,10 +184,10 @@ public class Validator {
      * @return An executable XSLT
      * @throws Exception
      */
-    static XsltExecutable buildTransformer(URL url) throws ValidatorException {
+    XsltExecutable buildTransformer(URL url) throws ValidatorException {
         try {
-            XdmNode xslDoc = Saxon.buildDocument(new javax.xml.transform.stream.StreamSource(url.toExternalForm()));
-            return Saxon.buildTransformer(xslDoc);
+            XdmNode xslDoc = saxon.buildDocument(new javax.xml.transform.stream.StreamSource(url.toExternalForm()));
+            return saxon.buildTransformer(xslDoc);
         } catch (SaxonApiException ex) {
             throw new ValidatorException(ex);
         }
@@ -128,10 +201,10 @@ public class Validator {
      * @return An executable XSLT
      * @throws Exception
      */
-    static XsltExecutable buildTransformer(InputStream stream) throws ValidatorException {
+    XsltExecutable buildTransformer(InputStream stream) throws ValidatorException {
         try {
-            XdmNode xslDoc = Saxon.buildDocument(new javax.xml.transform.stream.StreamSource(stream));
-            return Saxon.buildTransformer(xslDoc);
+            XdmNode xslDoc = saxon.buildDocument(new javax.xml.transform.stream.StreamSource(stream));
+            return saxon.buildTransformer(xslDoc);
         } catch (SaxonApiException ex) {
             throw new ValidatorException(ex);
         }
@@ -162,6 +235,42 @@ public class Validator {
         return cmdSchema;
     }
 
+    /**
+     * Loads the XSD schema and the Schematron rules for the selected engine,
+     * instead of just-in-time on the first validation.
+     *
+     * @throws ValidatorException
+     * @throws IOException
+     */
+    public void initialize() throws ValidatorException, IOException {
+        initialize(null);
+    }
+
+    /**
+     * Loads the XSD schema and the Schematron rules for the selected engine
+     * and a selection of patterns, instead of just-in-time on the first
+     * validation.
+     *
+     * @param patterns The ids of the Schematron patterns that will be checked,
+     * or null for the patterns of the phase
+     * @throws ValidatorException, also if a pattern is unknown
+     * @throws IOException
+     * @see #validateProfile(Source, Set)
+     */
+    public void initialize(Set<String> patterns) throws ValidatorException, IOException {
+        getSchema();
+        if (schematronEngine == SchematronEngine.NATIVE) {
+            getNativeSchematron();
+            if (patterns != null) {
+                checkPatterns(patterns);
+            }
+        } else if (patterns != null) {
+            getSchematrons(patterns);
+        } else {
+            getSchematron();
+        }
+    }
+
     /**
      * Validation of a loaded CMD profile/component against the XSD schema.
      *
@@ -173,68 +282,124 @@ public class Validator {
      * @throws Exception
      */
     public boolean validateXSD(XdmNode src) throws ValidatorException, IOException {
-        try {
-            Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
-            DOMDestination dst = new DOMDestination(doc);
-            Saxon.getProcessor().writeXdmValue(src, dst);
-
-            try {
-                // Create a Validator object, which can be used to validate
-                // an instance document.
-                javax.xml.validation.Validator validator = getSchema().newValidator();
-
-                // Validate the DOM tree.
-                validator.validate(new DOMSource(doc));
+        return validateXSD(src, null);
+    }
 
-            } catch (SAXException e) {
-                Message msg = new Message();
-                msg.error = true;
-                msg.text = e.getMessage();
-                msgList.add(msg);
-                return false;
-            }
+    /**
+     * Validation of a loaded CMD profile/component against the XSD schema,
+     * which can be cancelled.
+     *
+     * The document is streamed from Saxon into the XSD validator, so there is
+     * no need for a DOM copy and the stream can be stopped.
+     *
+     * @param src The loaded CMD profile/component
+     * @param cancellation The cancellation to check (might be null)
+     * @return Is the CMD profile/component valid or not?
+     * @throws Exception
+     * @throws ValidationCancelledException if the validation is cancelled
+     */
+    public boolean validateXSD(XdmNode src, Cancellation cancellation) throws ValidatorException, IOException {
+        if (msgList == null) {
+            msgList = new java.util.ArrayList<Message>();
+        }
+        // Create a ValidatorHandler, which can be used to validate
+        // an instance document.
+        ValidatorHandler validator = getSchema().newValidatorHandler();
+        ContentHandler handler = cancellation != null ? new CancellationFilter(validator, cancellation) : validator;
+        try {
+            // Validate the XDM tree.
+            saxon.getProcessor().writeXdmValue(src, new SAXDestination(handler));
         } catch (SaxonApiException ex) {
-            throw new ValidatorException(ex);
-        } catch (ParserConfigurationException ex) {
-            throw new ValidatorException(ex);
+            if (cancellation != null) {
+                cancellation.check();
+            }
+            SAXException e = getCause(ex, SAXException.class);
+            if (e == null) {
+                throw new ValidatorException(ex);
+            }
+            Message msg = new Message();
+            msg.error = true;
+            msg.text = e.getMessage();
+            msgList.add(msg);
+            return false;
         }
 
         return true;
     }
 
     /**
-     * Returns the CMD Schematron XSLT, and loads it just-in-time.
+     * Find the first cause of an exception of a specific type.
+     */
+    private static <T extends Throwable> T getCause(Throwable t, Class<T> type) {
+        for (Throwable cause = t.getCause(); cause != null; cause = cause.getCause()) {
+            if (type.isInstance(cause)) {
+                return type.cast(cause);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the Schematron rules of the CMD schema, and extracts them
+     * just-in-time.
      *
-     * @return The compiled Schematron XSLT
+     * @return The Schematron schema, with includes and abstract patterns
+     * resolved
      * @throws Exception
      */
-    private synchronized XsltExecutable getSchematron() throws ValidatorException, IOException {
-        if (cmdSchematron == null) {
+    private synchronized XdmNode getSchematronRules() throws ValidatorException, IOException {
+        if (cmdSchematronRules == null) {
             try {
                 // Load the schema
-                XdmNode schema = Saxon.buildDocument(new javax.xml.transform.stream.StreamSource(cmdSchemaUri.openStream()));
+                XdmNode schema = saxon.buildDocument(new javax.xml.transform.stream.StreamSource(cmdSchemaUri.openStream()));
                 // Load the Schematron XSL to extract the Schematron rules;
                 XsltTransformer extractSchXsl = buildTransformer(Validator.class.getResource("/schematron/ExtractSchFromXSD-2.xsl")).load();
-                // Load the Schematron XSLs to 'compile' Schematron rules;
+                // Load the Schematron XSLs to resolve includes and abstract patterns;
                 XsltTransformer includeSchXsl = buildTransformer(Validator.class.getResource("/schematron/iso_dsdl_include.xsl")).load();
                 XsltTransformer expandSchXsl = buildTransformer(Validator.class.getResource("/schematron/iso_abstract_expand.xsl")).load();
-                XsltTransformer compileSchXsl = buildTransformer(Validator.class.getResource("/schematron/iso_svrl_for_xslt2.xsl")).load();
+                if (getResourceResolver() instanceof URIResolver) {
+                    // resolve the schemas imported by the CMD schema, e.g., xml.xsd, with the same resolver
+                    extractSchXsl.setURIResolver((URIResolver) getResourceResolver());
+                }
                 // Setup the pipeline
                 XdmDestination destination = new XdmDestination();
                 extractSchXsl.setSource(schema.asSource());
                 extractSchXsl.setDestination(includeSchXsl);
                 includeSchXsl.setDestination(expandSchXsl);
-                expandSchXsl.setDestination(compileSchXsl);
+                expandSchXsl.setDestination(destination);
+
+                // Extract the Schematron rules from the schema
+                extractSchXsl.transform();
+                cmdSchematronRules = destination.getXdmNode();
+            } catch (SaxonApiException ex) {
+                throw new ValidatorException(ex);
+            }
+        }
+        return cmdSchematronRules;
+    }
+
+    /**
+     * Returns the CMD Schematron XSLT, and loads it just-in-time.
+     *
+     * @return The compiled Schematron XSLT
+     * @throws Exception
+     */
+    private synchronized XsltExecutable getSchematron() throws ValidatorException, IOException {
+        if (cmdSchematron == null) {
+            try {
+                // Load the Schematron XSL to 'compile' Schematron rules;
+                XsltTransformer compileSchXsl = buildTransformer(Validator.class.getResource("/schematron/iso_svrl_for_xslt2.xsl")).load();
+                XdmDestination destination = new XdmDestination();
+                compileSchXsl.setSource(getSchematronRules().asSource());
                 compileSchXsl.setDestination(destination);
 
                 if (schematronPhase != null) {
                     compileSchXsl.setParameter(SCHEMATRON_PHASE_PARAMETER, new XdmAtomicValue(schematronPhase));
                 }
 
-                // Extract the Schematron rules from the schema        
-                extractSchXsl.transform();
+                compileSchXsl.transform();
                 // Compile the Schematron rules XSL
-                cmdSchematron = Saxon.buildTransformer(destination.getXdmNode());
+                cmdSchematron = saxon.buildTransformer(destination.getXdmNode());
             } catch (SaxonApiException ex) {
                 throw new ValidatorException(ex);
             }
@@ -243,25 +408,201 @@ public class Validator {
     }
 
     /**
-     * Validation of a loaded CMD profile/component against the Schematron XSLT
+     * Returns the ids of the Schematron patterns of the CMD schema, in
+     * document order, and extracts them just-in-time.
+     *
+     * @return The pattern ids
+     * @throws Exception
+     */
+    private synchronized List<String> getSchematronPatternIds() throws ValidatorException, IOException {
+        if (cmdSchematronPatternIds == null) {
+            try {
+                List<String> ids = new java.util.ArrayList<String>();
+                saxon.declareXPathNamespace("sch", NativeSchematron.SCH_NS);
+                for (XdmItem id : saxon.evaluateXPath(getSchematronRules(), "/sch:schema/sch:pattern/@id")) {
+                    ids.add(id.getStringValue());
+                }
+                cmdSchematronPatternIds = java.util.Collections.unmodifiableList(ids);
+            } catch (SaxonApiException ex) {
+                throw new ValidatorException(ex);
+            }
+        }
+        return cmdSchematronPatternIds;
+    }
+
+    /**
+     * Checks that a set of patterns only contains ids of Schematron patterns.
+     *
+     * @param patterns The ids of the patterns
+     * @return The ids of all patterns, in document order
+     * @throws ValidatorException if a pattern is unknown
+     */
+    private List<String> checkPatterns(Set<String> patterns) throws ValidatorException, IOException {
+        List<String> ids = getSchematronPatternIds();
+        if (!ids.containsAll(patterns)) {
+            Set<String> unknown = new java.util.TreeSet<String>(patterns);
+            unknown.removeAll(ids);
+            throw new ValidatorException("Unknown Schematron pattern(s): " + unknown);
+        }
+        return ids;
+    }
+
+    /**
+     * Returns the CMD Schematron XSLTs for a set of patterns, i.e., the XSLT
+     * of every pattern in document order, and loads them just-in-time.
+     *
+     * @param patterns The ids of the patterns
+     * @return The compiled Schematron XSLTs
+     * @throws Exception
+     * @see #getSchematron(String)
+     */
+    private List<XsltExecutable> getSchematrons(Set<String> patterns) throws ValidatorException, IOException {
+        List<String> ids = checkPatterns(patterns);
+        List<XsltExecutable> schematrons = new java.util.ArrayList<XsltExecutable>(patterns.size());
+        for (String id : ids) {
+            if (patterns.contains(id)) {
+                schematrons.add(getSchematron(id));
+            }
+        }
+        return schematrons;
+    }
+
+    /**
+     * Returns the CMD Schematron XSLT for a single pattern, and loads it
+     * just-in-time. The XSLT is compiled for a phase, added to the Schematron
+     * rules, that activates just this pattern. So there are at most as many
+     * XSLTs as patterns, and a selection of patterns runs the XSLTs of these
+     * patterns.
+     *
+     * @param pattern The id of the pattern
+     * @return The compiled Schematron XSLT
+     * @throws Exception
+     */
+    private XsltExecutable getSchematron(String pattern) throws ValidatorException, IOException {
+        final java.util.Map<String, XsltExecutable> schematrons = cmdPatternSchematrons;
+        synchronized (schematrons) {
+            XsltExecutable schematron = schematrons.get(pattern);
+            if (schematron == null) {
+                try {
+                    // Load the Schematron XSLs to add the phase and 'compile' Schematron rules;
+                    XsltTransformer selectSchXsl = buildTransformer(Validator.class.getResource("/schematron/SelectPatterns.xsl")).load();
+                    XsltTransformer compileSchXsl = buildTransformer(Validator.class.getResource("/schematron/iso_svrl_for_xslt2.xsl")).load();
+                    // Setup the pipeline
+                    XdmDestination destination = new XdmDestination();
+                    selectSchXsl.setSource(getSchematronRules().asSource());
+                    selectSchXsl.setDestination(compileSchXsl);
+                    compileSchXsl.setDestination(destination);
+
+                    selectSchXsl.setParameter(SCHEMATRON_PHASE_PARAMETER, new XdmAtomicValue(SCHEMATRON_PATTERNS_PHASE));
+                    selectSchXsl.setParameter(SCHEMATRON_PATTERNS_PARAMETER, new XdmAtomicValue(pattern));
+                    compileSchXsl.setParameter(SCHEMATRON_PHASE_PARAMETER, new XdmAtomicValue(SCHEMATRON_PATTERNS_PHASE));
+
+                    selectSchXsl.transform();
+                    // Compile the Schematron rules XSL
+                    schematron = saxon.buildTransformer(destination.getXdmNode());
+                    schematrons.put(pattern, schematron);
+                } catch (SaxonApiException ex) {
+                    throw new ValidatorException(ex);
+                }
+            }
+            return schematron;
+        }
+    }
+
+    /**
+     * Returns the CMD Schematron rules compiled for the native engine, and
+     * compiles them just-in-time.
+     *
+     * @return The compiled Schematron rules
+     * @throws Exception
+     */
+    private synchronized NativeSchematron getNativeSchematron() throws ValidatorException, IOException {
+        if (cmdNativeSchematron == null) {
+            cmdNativeSchematron = NativeSchematron.compile(getSchematronRules(), saxon.getProcessor());
+        }
+        return cmdNativeSchematron;
+    }
+
+    /**
+     * Validation of a loaded CMD profile/component against the Schematron
+     * rules, using the selected {@link SchematronEngine}.
      *
      * @param src The loaded CMD profile/component
      * @return Is the CMD profile/component valid or not?
      * @throws Exception
      */
     public boolean validateSchematron(XdmNode src) throws ValidatorException, IOException {
-        try {
-            XsltTransformer schematronXsl = getSchematron().load();
-            schematronXsl.setSource(src.asSource());
-            XdmDestination destination = new XdmDestination();
-            schematronXsl.setDestination(destination);
-            schematronXsl.transform();
+        return validateSchematron(src, null);
+    }
 
-            validationReport = destination.getXdmNode();
+    /**
+     * Validation of a loaded CMD profile/component against a selection of
+     * the Schematron rules, using the selected {@link SchematronEngine}.
+     *
+     * The native engine only evaluates the rules of the selected patterns.
+     * The XSLT engine runs the XSLTs of the selected patterns, which it
+     * compiles once per pattern.
+     *
+     * @param src The loaded CMD profile/component
+     * @param patterns The ids of the Schematron patterns to check, or null for
+     * the patterns of the phase (see {@link #setSchematronPhase(String)})
+     * @return Is the CMD profile/component valid or not?
+     * @throws Exception
+     */
+    public boolean validateSchematron(XdmNode src, Set<String> patterns) throws ValidatorException, IOException {
+        return validateSchematron(src, patterns, null);
+    }
+
+    /**
+     * Validation of a loaded CMD profile/component against a selection of
+     * the Schematron rules, which can be cancelled.
+     *
+     * @param src The loaded CMD profile/component
+     * @param patterns The ids of the Schematron patterns to check, or null for
+     * the patterns of the phase (see {@link #setSchematronPhase(String)})
+     * @param cancellation The cancellation to check (might be null)
+     * @return Is the CMD profile/component valid or not?
+     * @throws Exception
+     * @throws ValidationCancelledException if the validation is cancelled
+     */
+    public boolean validateSchematron(XdmNode src, Set<String> patterns, Cancellation cancellation) throws ValidatorException, IOException {
+        if (msgList == null) {
+            msgList = new java.util.ArrayList<Message>();
+        }
+        try {
+            if (schematronEngine == SchematronEngine.NATIVE) {
+                NativeSchematron schematron = getNativeSchematron();
+                return schematron.validate(src, patterns != null ? patterns : schematron.getPhasePatterns(schematronPhase), msgList, cancellation);
+            }
 
-            Saxon.declareXPathNamespace("svrl", "http://purl.oclc.org/dsdl/svrl");
-            return ((net.sf.saxon.value.BooleanValue) Saxon.evaluateXPath(validationReport, "empty(//svrl:failed-assert[(preceding-sibling::svrl:fired-rule)[last()][empty(@role) or @role!='warning']])").evaluateSingle().getUnderlyingValue()).getBooleanValue();
+            List<XsltExecutable> schematrons = patterns != null ? getSchematrons(patterns) : java.util.Collections.singletonList(getSchematron());
+            validationReports = new java.util.ArrayList<XdmNode>(schematrons.size());
+            saxon.declareXPathNamespace("svrl", "http://purl.oclc.org/dsdl/svrl");
+            boolean valid = true;
+            for (XsltExecutable schematron : schematrons) {
+                XsltTransformer schematronXsl = schematron.load();
+                schematronXsl.setSource(src.asSource());
+                XdmNode validationReport;
+                if (cancellation != null) {
+                    // build the report from SAX events, so the transform can be stopped
+                    BuildingContentHandler builder = saxon.getProcessor().newDocumentBuilder().newBuildingContentHandler();
+                    schematronXsl.setDestination(new SAXDestination(new CancellationFilter(builder, cancellation)));
+                    schematronXsl.transform();
+                    validationReport = builder.getDocumentNode();
+                } else {
+                    XdmDestination destination = new XdmDestination();
+                    schematronXsl.setDestination(destination);
+                    schematronXsl.transform();
+                    validationReport = destination.getXdmNode();
+                }
+                validationReports.add(validationReport);
+                valid &= ((net.sf.saxon.value.BooleanValue) saxon.evaluateXPath(validationReport, "empty(//svrl:failed-assert[(preceding-sibling::svrl:fired-rule)[last()][empty(@role) or @role!='warning']])").evaluateSingle().getUnderlyingValue()).getBooleanValue();
+            }
+            return valid;
         } catch (SaxonApiException ex) {
+            if (cancellation != null) {
+                cancellation.check();
+            }
             throw new ValidatorException(ex);
         }
     }
@@ -279,27 +620,135 @@ public class Validator {
      * @throws Exception
      */
     public boolean validateProfile(Source prof) throws ValidatorException, IOException {
+        return validateProfile(prof, null);
+    }
+
+    /**
+     * Validation of a loaded CMD profile/component against both the XSD and a
+     * selection of the Schematron rules.
+     *
+     * @param prof The CMD profile/component
+     * @param patterns The ids of the Schematron patterns to check, or null for
+     * the patterns of the phase (see {@link #setSchematronPhase(String)})
+     * @return Is the CMD profile/component valid or not?
+     * @throws Exception
+     * @see #validateSchematron(XdmNode, Set)
+     */
+    public boolean validateProfile(Source prof, Set<String> patterns) throws ValidatorException, IOException {
+        return validateProfile(prof, patterns, newCancellation());
+    }
+
+    /**
+     * Validation of a CMD profile/component against both the XSD and a
+     * selection of the Schematron rules, which can be cancelled. The
+     * cancellation is checked while the document is parsed, validated against
+     * the XSD and checked against the Schematron rules.
+     *
+     * @param prof The CMD profile/component
+     * @param patterns The ids of the Schematron patterns to check, or null for
+     * the patterns of the phase (see {@link #setSchematronPhase(String)})
+     * @param cancellation The cancellation to check (might be null)
+     * @return Is the CMD profile/component valid or not?
+     * @throws Exception
+     * @throws ValidationCancelledException if the validation is cancelled
+     */
+    public boolean validateProfile(Source prof, Set<String> patterns, Cancellation cancellation) throws ValidatorException, IOException {
         // Initalize
         msgList = new java.util.ArrayList<Message>();
-        validationReport = null;
+        validationReports = null;
+
+        // step 0: reject documents that can't be a CMD profile/component
+        if (preCheck != PreCheck.NONE) {
+            PreChecker checker = new PreChecker(prof);
+            String problem = checker.check();
+            if (problem != null) {
+                Message msg = new Message();
+                msg.error = true;
+                msg.text = problem;
+                msgList.add(msg);
+                return false;
+            }
+            prof = checker.getSource();
+        }
 
         try {
             // load the document
-            XdmNode doc = Saxon.buildDocument(prof);
+            XdmNode doc;
+            try {
+                doc = cancellation != null ? buildDocument(prof, cancellation) : saxon.buildDocument(prof);
+            } catch (SaxonApiException ex) {
+                SAXParseException error = preCheck == PreCheck.WELLFORMED ? getParseError(ex) : null;
+                if (error == null || cancellation != null && cancellation.isCancelled()) {
+                    throw ex;
+                }
+                // the pre-check only read the start, the parser found the rest isn't well-formed
+                Message msg = new Message();
+                msg.error = true;
+                msg.text = PreChecker.notWellFormed("line " + error.getLineNumber() + ", column " + error.getColumnNumber() + ": " + error.getMessage());
+                msgList.add(msg);
+                return false;
+            }
 
             // step 1: validate against XML Schema
-            if (!this.validateXSD(doc)) {
+            if (!this.validateXSD(doc, cancellation)) {
                 return false;
             }
 
             // step 2: validate Schematron rules
-            return validateSchematron(doc);
+            return validateSchematron(doc, patterns, cancellation);
         } catch (SaxonApiException ex) {
+            if (cancellation != null) {
+                cancellation.check();
+            }
             throw new ValidatorException(ex);
         }
 
     }
 
+    /**
+     * @return The error of the parser that made loading a document fail, or
+     * null if it failed for another reason
+     */
+    private static SAXParseException getParseError(Throwable ex) {
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SAXParseException) {
+                return (SAXParseException) cause;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Load a document with a parser that stops when the validation is
+     * cancelled. The parser is the one of the source or, like for the other
+     * documents, one of the Saxon configuration, which gets it back once the
+     * document is loaded. Sources that aren't parsed, e.g., a DOMSource, are
+     * loaded as is.
+     */
+    private XdmNode buildDocument(Source prof, Cancellation cancellation) throws SaxonApiException {
+        InputSource input = SAXSource.sourceToInputSource(prof);
+        if (input == null) {
+            return saxon.buildDocument(prof);
+        }
+        if (prof instanceof SAXSource && ((SAXSource) prof).getXMLReader() != null) {
+            return saxon.buildDocument(new SAXSource(new CancellationFilter(((SAXSource) prof).getXMLReader(), cancellation), input));
+        }
+        net.sf.saxon.Configuration config = saxon.getProcessor().getUnderlyingConfiguration();
+        XMLReader reader = config.getSourceParser();
+        XdmNode doc = saxon.buildDocument(new SAXSource(new CancellationFilter(reader, cancellation), input));
+        // only reuse parsers that weren't stopped halfway
+        config.reuseSourceParser(reader);
+        return doc;
+    }
+
+    /**
+     * @return A cancellation for the configured timeout, or null if there is
+     * no timeout
+     */
+    private Cancellation newCancellation() {
+        return timeoutMillis > 0 ? Cancellation.withTimeout(timeoutMillis) : null;
+    }
+
     /**
      * Get the list of messages accumulated in the last validation run.
      *
@@ -307,18 +756,20 @@ public class Validator {
      * @throws Exception
      */
     public List<Message> getMessages() throws ValidatorException {
-        if (validationReport != null) {
+        if (validationReports != null) {
             try {
-                for (XdmItem assertion : Saxon.evaluateXPath(validationReport, "//svrl:failed-assert")) {
-                    Message msg = new Message();
-                    msg.context = Saxon.evaluateXPath(assertion, "(preceding-sibling::svrl:fired-rule)[last()]/@context").evaluateSingle().getStringValue();
-                    msg.test = ((XdmNode) assertion).getAttributeValue(new QName("test"));
-                    msg.location = ((XdmNode) assertion).getAttributeValue(new QName("location"));
-                    msg.error = !((net.sf.saxon.value.BooleanValue) Saxon.evaluateXPath(assertion, "(preceding-sibling::svrl:fired-rule)[last()]/@role='warning'").evaluateSingle().getUnderlyingValue()).getBooleanValue();
-                    msg.text = assertion.getStringValue();
-                    msgList.add(msg);
+                for (XdmNode validationReport : validationReports) {
+                    for (XdmItem assertion : saxon.evaluateXPath(validationReport, "//svrl:failed-assert")) {
+                        Message msg = new Message();
+                        msg.context = saxon.evaluateXPath(assertion, "(preceding-sibling::svrl:fired-rule)[last()]/@context").evaluateSingle().getStringValue();
+                        msg.test = ((XdmNode) assertion).getAttributeValue(new QName("test"));
+                        msg.location = ((XdmNode) assertion).getAttributeValue(new QName("location"));
+                        msg.error = !((net.sf.saxon.value.BooleanValue) saxon.evaluateXPath(assertion, "(preceding-sibling::svrl:fired-rule)[last()]/@role='warning'").evaluateSingle().getUnderlyingValue()).getBooleanValue();
+                        msg.text = assertion.getStringValue();
+                        msgList.add(msg);
+                    }
                 }
-                validationReport = null;
+                validationReports = null;
             } catch (SaxonApiException ex) {
                 throw new ValidatorException(ex);
             }
@@ -340,61 +791,73 @@ public class Validator {
     }
 
     /**
-     * @param args One or more CMD profile/component files to validate.
+     * Validation of a CMD profile/component, reporting the outcome, the
+     * messages and the time spent as a single result. Exceptions are not
+     * thrown but reported as a failed result.
+     *
+     * @param document The name of the CMD profile/component, e.g., its file name
+     * @param prof The CMD profile/component
+     * @return The validation result
      */
-    public static void main(String[] args) {
-        try {
-
-            URL schemaURL = null;
-
-            int startArg = 0;
-            if (args.length > 0) {
-                if ("-s".equals(args[0].trim())) {
-                    if (args.length > 1) {
-                        String schemaArg = args[1];
-                        System.err.println("Using schema URL" + schemaArg);
-                        schemaURL = new URL(schemaArg);
-                        startArg = 2;
-                    } else {
-                        printUsage(args);
-                        return;
-                    }
-                }
-            } else {
-                printUsage(args);
-                return;
-            }
-
-            if (schemaURL == null) {
-                schemaURL = new URL(CMD_SCHEMA_URL);
-            }
+    public ValidationResult validate(String document, Source prof) {
+        return validate(document, prof, null);
+    }
 
-            final Validator cmdValidator = new Validator(schemaURL);
+    /**
+     * Validation of a CMD profile/component against the XSD and a selection of
+     * the Schematron rules, reporting the outcome, the messages and the time
+     * spent as a single result.
+     *
+     * @param document The name of the CMD profile/component, e.g., its file name
+     * @param prof The CMD profile/component
+     * @param patterns The ids of the Schematron patterns to check, or null for
+     * the patterns of the phase
+     * @return The validation result
+     * @see #validateProfile(Source, Set)
+     */
+    public ValidationResult validate(String document, Source prof, Set<String> patterns) {
+        return validate(document, prof, patterns, newCancellation());
+    }
 
-            for (int i = startArg; i < args.length; i++) {
-                String f = args[i];
-                System.out.print("CMD validate[" + f + "] ");
-                try {
-                    Source src = new javax.xml.transform.stream.StreamSource(new java.io.File(f));
-                    if (cmdValidator.validateProfile(src)) {
-                        System.out.println("valid");
-                    } else {
-                        System.out.println("invalid");
-                    }
-                    cmdValidator.printMessages(System.out);
-                } catch (Exception e) {
-                    System.err.println("failed:");
-                    e.printStackTrace(System.out);
-                }
-            }
-        } catch (MalformedURLException e) {
-            System.err.println("failed:");
-            e.printStackTrace(System.out);
+    /**
+     * Validation of a CMD profile/component against the XSD and a selection of
+     * the Schematron rules, which can be cancelled, reporting the outcome, the
+     * messages and the time spent as a single result. A cancelled validation
+     * is reported as {@link ValidationResult.Status#TIMEOUT} or
+     * {@link ValidationResult.Status#CANCELLED}.
+     *
+     * @param document The name of the CMD profile/component, e.g., its file name
+     * @param prof The CMD profile/component
+     * @param patterns The ids of the Schematron patterns to check, or null for
+     * the patterns of the phase
+     * @param cancellation The cancellation to check (might be null)
+     * @return The validation result
+     * @see #validateProfile(Source, Set, Cancellation)
+     */
+    public ValidationResult validate(String document, Source prof, Set<String> patterns, Cancellation cancellation) {
+        final long start = System.nanoTime();
+        ValidationResult.Status status;
+        List<Message> messages = null;
+        Throwable failure = null;
+        try {
+            status = validateProfile(prof, patterns, cancellation) ? ValidationResult.Status.VALID : ValidationResult.Status.INVALID;
+            messages = new java.util.ArrayList<Message>(getMessages());
+        } catch (ValidationCancelledException ex) {
+            status = ex.isTimedOut() ? ValidationResult.Status.TIMEOUT : ValidationResult.Status.CANCELLED;
+            failure = ex;
+        } catch (Exception ex) {
+            status = ValidationResult.Status.FAILED;
+            failure = ex;
         }
+        return new ValidationResult(document, status, messages, (System.nanoTime() - start) / 1000000L, failure);
     }
 
-    private static void printUsage(String[] args) {
-        System.err.println("Arguments: [-s schemafileURL] files...");
+    /**
+     * @param args One or more CMD profile/component files to validate.
+     * @see ValidatorCli
+     */
+    public static void main(String[] args) {
+        ValidatorCli.main(args);
     }
 
     /**
@@ -417,7 +880,7 @@ public class Validator {
      * (default value) for default phase
      */
     public void setSchematronPhase(String schematronPhase) {
-        if ((schematronPhase != null && !schematronPhase.equals(schematronPhase))
+        if ((schematronPhase != null && !schematronPhase.equals(this.schematronPhase))
                 || (schematronPhase == null && this.schematronPhase != null)) {
             //reset schematron, force a recompilation on next request via #getSchematron()
             this.cmdSchematron = null;
@@ -425,6 +888,108 @@ public class Validator {
         this.schematronPhase = schematronPhase;
     }
 
+    /**
+     *
+     * @param schematronEngine engine to use for schematron validation
+     * (default {@link SchematronEngine#XSLT})
+     */
+    public void setSchematronEngine(SchematronEngine schematronEngine) {
+        this.schematronEngine = schematronEngine;
+    }
+
+    /**
+     *
+     * @param timeoutMillis timeout of each validation run in milliseconds,
+     * after which it is cancelled - use 0 (default value) for no timeout. As
+     * loading the schema counts against the timeout, use {@link #initialize()}
+     * first.
+     * @see Cancellation#withTimeout(long)
+     */
+    public void setTimeout(long timeoutMillis) {
+        if (timeoutMillis < 0) {
+            throw new IllegalArgumentException("Invalid timeout: " + timeoutMillis);
+        }
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Use another Saxon processor, e.g., one with a tuned configuration or
+     * one per tenant (see {@link SaxonContext#forTenant(String)}). The
+     * Schematron rules are compiled again for the processor. Documents passed
+     * as XdmNode should be built with the same processor.
+     *
+     * @param saxon Saxon processor to use (default
+     * {@link SaxonContext#getDefault()})
+     */
+    public synchronized void setSaxonContext(SaxonContext saxon) {
+        if (saxon != this.saxon) {
+            this.cmdSchematron = null;
+            this.cmdSchematronRules = null;
+            this.cmdNativeSchematron = null;
+            this.cmdPatternSchematrons = new java.util.HashMap<String, XsltExecutable>();
+            this.cmdSchematronPatternIds = null;
+            this.validationReports = null;
+        }
+        this.saxon = saxon;
+    }
+
+    /**
+     * @return The Saxon processor used by this Validator
+     */
+    public SaxonContext getSaxonContext() {
+        return saxon;
+    }
+
+    /**
+     *
+     * @param preCheck check to do before the document is loaded (default
+     * {@link PreCheck#NONE})
+     */
+    public void setPreCheck(PreCheck preCheck) {
+        this.preCheck = preCheck;
+    }
+
+    /**
+     * The checks that can be done before a document is loaded, to reject
+     * documents that can't be a CMD profile/component without building a tree.
+     * A rejected document is invalid, with a single error message. Only
+     * sources that are streams or have a system identifier are checked.
+     */
+    public enum PreCheck {
+        /**
+         * No check.
+         */
+        NONE,
+        /**
+         * Check that the root element is a ComponentSpec without a namespace,
+         * reading just the prolog and the root element.
+         */
+        ROOT,
+        /**
+         * Check the root element, and report a document that turns out not to
+         * be well-formed while it is loaded as invalid, with a single message,
+         * instead of failing the validation. The document is still read only
+         * once, without keeping a copy.
+         */
+        WELLFORMED
+    }
+
+    /**
+     * The available Schematron engines.
+     */
+    public enum SchematronEngine {
+        /**
+         * Compile the rules into an XSLT that produces an SVRL report, and
+         * query the report for the messages.
+         */
+        XSLT,
+        /**
+         * Compile the rules into XPath expressions and evaluate them directly,
+         * see {@link NativeSchematron}.
+         */
+        NATIVE
+    }
+
     /**
      * Public inner class to represent validation messages.
      */
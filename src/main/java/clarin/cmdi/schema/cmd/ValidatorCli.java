@@ -0,0 +1,322 @@
+package clarin.cmdi.schema.cmd;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URL;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import javax.xml.catalog.CatalogFeatures;
+import javax.xml.catalog.CatalogManager;
+
+/**
+ * The command line interface of the {@link Validator}.
+ *
+ * Reports are written to stdout, diagnostics to stderr.
+ */
+final class ValidatorCli {
+
+    /**
+     * The schema to validate against
+     */
+    private URL schemaURL = null;
+    /**
+     * XML catalog to resolve the schemas imported by the CMD schema (might be
+     * null)
+     */
+    private URI catalog = null;
+    /**
+     * The format of the report (null for the default, text)
+     */
+    private ReportWriter.Format format = null;
+    /**
+     * The Schematron engine
+     */
+    private Validator.SchematronEngine engine = Validator.SchematronEngine.XSLT;
+    /**
+     * The Schematron phase (might be null)
+     */
+    private String phase = null;
+    /**
+     * The Schematron patterns to check (might be null)
+     */
+    private Set<String> patterns = null;
+    /**
+     * Port to listen on as a daemon (or -1)
+     */
+    private int daemonPort = -1;
+    /**
+     * Directories the daemon may read files from (default: the working
+     * directory)
+     */
+    private final List<Path> roots = new ArrayList<>();
+    /**
+     * Port of the daemon to send the files to (or -1)
+     */
+    private int clientPort = -1;
+    /**
+     * Directory to watch (might be null)
+     */
+    private String watchDir = null;
+    /**
+     * Manifest of the files to validate in bulk (might be null)
+     */
+    private String manifest = null;
+    /**
+     * The shard of the manifest to validate, 1-based
+     */
+    private int shard = 1;
+    /**
+     * The number of shards of the manifest
+     */
+    private int shards = 1;
+    /**
+     * Result file of a bulk validation (might be null)
+     */
+    private String results = null;
+    /**
+     * Checkpoint file of a bulk validation (might be null)
+     */
+    private String checkpoint = null;
+    /**
+     * Merge the result files given as arguments instead of validating
+     */
+    private boolean merge = false;
+    /**
+     * The number of documents to validate in parallel
+     */
+    private int threads = 1;
+    /**
+     * Timeout per document in milliseconds, 0 for none
+     */
+    private long timeout = 0;
+    /**
+     * The check before a document is loaded
+     */
+    private Validator.PreCheck preCheck = Validator.PreCheck.NONE;
+    /**
+     * The files to validate
+     */
+    private final List<String> files = new ArrayList<>();
+
+    private ValidatorCli() {
+    }
+
+    /**
+     * @param args Command line arguments, see {@link #printUsage()}
+     */
+    static void main(String[] args) {
+        final ValidatorCli cli = new ValidatorCli();
+        try {
+            if (!cli.parse(args)) {
+                printUsage();
+                return;
+            }
+            cli.run();
+        } catch (MalformedURLException e) {
+            System.err.println("failed:");
+            e.printStackTrace(System.err);
+        } catch (IOException e) {
+            System.err.println("failed:");
+            e.printStackTrace(System.err);
+        } catch (ValidatorException e) {
+            System.err.println("failed:");
+            e.printStackTrace(System.err);
+        }
+    }
+
+    /**
+     * Parse the command line arguments.
+     *
+     * @return false if the arguments are incomplete or unknown
+     */
+    private boolean parse(String[] args) throws MalformedURLException {
+        int i = 0;
+        for (; i < args.length && args[i].trim().startsWith("-"); i++) {
+            final String arg = args[i].trim();
+            if ("--merge".equals(arg)) {
+                merge = true;
+                continue;
+            }
+            if (i + 1 >= args.length) {
+                return false;
+            }
+            try {
+                if ("-s".equals(arg)) {
+                    String schemaArg = args[++i];
+                    System.err.println("Using schema URL" + schemaArg);
+                    schemaURL = new URL(schemaArg);
+                } else if ("--catalog".equals(arg)) {
+                    catalog = Paths.get(args[++i]).toUri();
+                } else if ("-f".equals(arg) || "--format".equals(arg)) {
+                    format = ReportWriter.Format.forName(args[++i]);
+                } else if ("--engine".equals(arg)) {
+                    engine = Validator.SchematronEngine.valueOf(args[++i].trim().toUpperCase(Locale.ROOT));
+                } else if ("--phase".equals(arg)) {
+                    phase = args[++i];
+                } else if ("--patterns".equals(arg)) {
+                    patterns = new LinkedHashSet<>();
+                    for (String pattern : args[++i].split(",")) {
+                        if (!pattern.trim().isEmpty()) {
+                            patterns.add(pattern.trim());
+                        }
+                    }
+                } else if ("--daemon".equals(arg)) {
+                    daemonPort = Integer.parseInt(args[++i]);
+                } else if ("--root".equals(arg)) {
+                    roots.add(Paths.get(args[++i]));
+                } else if ("--client".equals(arg)) {
+                    clientPort = Integer.parseInt(args[++i]);
+                } else if ("--watch".equals(arg)) {
+                    watchDir = args[++i];
+                } else if ("--manifest".equals(arg)) {
+                    manifest = args[++i];
+                } else if ("--shard".equals(arg)) {
+                    final String[] shardArg = args[++i].split("/");
+                    if (shardArg.length != 2) {
+                        throw new IllegalArgumentException(args[i]);
+                    }
+                    shard = Integer.parseInt(shardArg[0].trim());
+                    shards = Integer.parseInt(shardArg[1].trim());
+                    if (shards < 1 || shard < 1 || shard > shards) {
+                        throw new IllegalArgumentException(args[i]);
+                    }
+                } else if ("--threads".equals(arg)) {
+                    threads = Integer.parseInt(args[++i]);
+                    if (threads < 1) {
+                        throw new IllegalArgumentException(args[i]);
+                    }
+                } else if ("--timeout".equals(arg)) {
+                    timeout = Long.parseLong(args[++i]);
+                    if (timeout < 0) {
+                        throw new IllegalArgumentException(args[i]);
+                    }
+                } else if ("--precheck".equals(arg)) {
+                    preCheck = Validator.PreCheck.valueOf(args[++i].trim().toUpperCase(Locale.ROOT));
+                } else if ("--results".equals(arg)) {
+                    results = args[++i];
+                } else if ("--checkpoint".equals(arg)) {
+                    checkpoint = args[++i];
+                } else {
+                    System.err.println("Unknown option: " + arg);
+                    return false;
+                }
+            } catch (IllegalArgumentException e) {
+                System.err.println("Invalid value for " + arg + ": " + args[i]);
+                return false;
+            }
+        }
+        for (; i < args.length; i++) {
+            files.add(args[i]);
+        }
+        if (schemaURL == null) {
+            schemaURL = new URL(Validator.CMD_SCHEMA_URL);
+        }
+        if (merge) {
+            return !files.isEmpty();
+        }
+        if (manifest != null) {
+            // the results of a bulk validation are JSON Lines, which --merge reads
+            if (format != null && format != ReportWriter.Format.JSONL) {
+                System.err.println("The results of --manifest are JSON Lines, not " + format.name().toLowerCase(Locale.ROOT));
+                return false;
+            }
+            if (!files.isEmpty()) {
+                System.err.println("With --manifest, list the files in the manifest: " + files);
+                return false;
+            }
+        }
+        if (format == null) {
+            format = ReportWriter.Format.TEXT;
+        }
+        return !files.isEmpty() || daemonPort >= 0 || watchDir != null || manifest != null;
+    }
+
+    private void run() throws IOException, ValidatorException {
+        if (merge) {
+            BulkValidation.merge(files, System.out);
+            return;
+        }
+        if (clientPort >= 0) {
+            ValidationServer.request(clientPort, files, System.out);
+            return;
+        }
+        final Validator cmdValidator = new Validator(schemaURL);
+        if (catalog != null) {
+            // fall back to the system identifiers that aren't in the catalog
+            cmdValidator.setResourceResolver(CatalogManager.catalogResolver(CatalogFeatures.builder().with(CatalogFeatures.Feature.RESOLVE, "continue").build(), catalog));
+        }
+        cmdValidator.setSchematronEngine(engine);
+        cmdValidator.setSchematronPhase(phase);
+        cmdValidator.setTimeout(timeout);
+        cmdValidator.setPreCheck(preCheck);
+        if (daemonPort >= 0) {
+            cmdValidator.initialize(patterns);
+            if (roots.isEmpty()) {
+                roots.add(Paths.get(""));
+            }
+            try (ValidationServer server = new ValidationServer(cmdValidator, format, patterns, roots, daemonPort, Runtime.getRuntime().availableProcessors())) {
+                System.err.println("CMD validate daemon listening on port " + daemonPort);
+                server.serve();
+            }
+            return;
+        }
+        if (threads > 1 || timeout > 0) {
+            // load the schema and the selected patterns now, so they don't count against the timeout
+            cmdValidator.initialize(patterns);
+        }
+        if (manifest != null) {
+            final BulkValidation bulk = new BulkValidation(cmdValidator, patterns, shard, shards, threads);
+            final String resultFile = results != null ? results : bulk.getDefaultResults();
+            final String checkpointFile = checkpoint != null ? checkpoint : resultFile + ".checkpoint";
+            bulk.run(Paths.get(manifest), Paths.get(resultFile), Paths.get(checkpointFile), System.err);
+            return;
+        }
+        try (ReportWriter report = format.newWriter(System.out)) {
+            try (final ValidationPool pool = new ValidationPool(cmdValidator, patterns, report, threads)) {
+                for (String f : files) {
+                    final Path path = Paths.get(f);
+                    final String systemId = path.toUri().toString();
+                    if (ArchiveReader.isArchive(f)) {
+                        ArchiveReader.read(path, new ArchiveReader.EntryHandler() {
+                            @Override
+                            public void entry(String name, InputStream content) throws IOException {
+                                pool.validate(name, systemId, content);
+                            }
+                        });
+                    } else {
+                        pool.validate(f, path.toFile());
+                    }
+                }
+            }
+            if (watchDir != null) {
+                new ValidationWatcher(cmdValidator, report, patterns).watch(Paths.get(watchDir));
+            }
+        }
+    }
+
+    private static void printUsage() {
+        System.err.println("Arguments: [options] files...");
+        System.err.println("       or: [options] --daemon port [--root directory]...");
+        System.err.println("       or: --client port files...");
+        System.err.println("       or: [options] --watch directory");
+        System.err.println("       or: [options] --manifest file [--shard i/n] [--results file] [--checkpoint file]");
+        System.err.println("       or: --merge resultfiles...");
+        System.err.println("Options:   -s schemafileURL");
+        System.err.println("           --catalog xmlCatalogFile");
+        System.err.println("           -f|--format text|jsonl|junit");
+        System.err.println("           --engine xslt|native");
+        System.err.println("           --phase schematronPhase");
+        System.err.println("           --patterns schematronPatternId,...");
+        System.err.println("           --threads n");
+        System.err.println("           --timeout milliseconds");
+        System.err.println("           --precheck none|root|wellformed");
+        System.err.println("Files can be *.xml, *.xml.gz, *.zip, *.tar, *.tar.gz or *.tgz");
+    }
+}
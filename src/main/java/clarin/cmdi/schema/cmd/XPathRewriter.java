@@ -0,0 +1,184 @@
+package clarin.cmdi.schema.cmd;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rewrites the XSLT functions current() and key() in a Schematron expression
+ * into plain XPath, see {@link NativeSchematron}.
+ */
+final class XPathRewriter {
+
+    private static final String CURRENT = "$Q{" + NativeSchematron.VAR_NS + "}current";
+    private static final String KEY_VALUE = "$Q{" + NativeSchematron.VAR_NS + "}value";
+    private static final String KEY_TOP = "$Q{" + NativeSchematron.VAR_NS + "}top";
+    private static final String MAP_GET = "Q{http://www.w3.org/2005/xpath-functions/map}get";
+
+    private final String xpath;
+    private final Map<String, String> keys;
+    private int pos = 0;
+
+    private XPathRewriter(String xpath, Map<String, String> keys) {
+        this.xpath = xpath;
+        this.keys = keys;
+    }
+
+    /**
+     * Rewrite an expression.
+     *
+     * @param xpath The expression
+     * @param keys The keys that can be used, by name: the variable holding the
+     * index, i.e., a map from use value to the matching nodes
+     * @return The rewritten expression
+     * @throws ValidatorException if a key is unknown or not referred to by a
+     * string literal
+     */
+    static String rewrite(String xpath, Map<String, String> keys) throws ValidatorException {
+        if (!xpath.contains("current") && !xpath.contains("key")) {
+            return xpath;
+        }
+        return new XPathRewriter(xpath, keys).rewrite(xpath.length());
+    }
+
+    /**
+     * Rewrite up to the end position.
+     */
+    private String rewrite(int end) throws ValidatorException {
+        final StringBuilder out = new StringBuilder(xpath.length() + 32);
+        while (pos < end) {
+            final char c = xpath.charAt(pos);
+            if (c == '\'' || c == '"') {
+                final int close = skipString(pos);
+                out.append(xpath, pos, close);
+                pos = close;
+            } else if (c == '(' && pos + 1 < end && xpath.charAt(pos + 1) == ':') {
+                final int close = skipComment(pos);
+                out.append(xpath, pos, close);
+                pos = close;
+            } else if (isNameStart(c) && (pos == 0 || !isNameChar(xpath.charAt(pos - 1)))) {
+                int nameEnd = pos;
+                while (nameEnd < end && isNameChar(xpath.charAt(nameEnd))) {
+                    nameEnd++;
+                }
+                final String name = xpath.substring(pos, nameEnd);
+                final int open = skipSpace(nameEnd, end);
+                final boolean call = open < end && xpath.charAt(open) == '(' && !(open + 1 < end && xpath.charAt(open + 1) == ':')
+                        && (pos == 0 || (xpath.charAt(pos - 1) != '$' && xpath.charAt(pos - 1) != '@'));
+                if (call && "current".equals(name)) {
+                    final int close = skipSpace(open + 1, end);
+                    if (close < end && xpath.charAt(close) == ')') {
+                        out.append(CURRENT);
+                        pos = close + 1;
+                        continue;
+                    }
+                } else if (call && "key".equals(name)) {
+                    out.append(key(open, end));
+                    continue;
+                }
+                out.append(name);
+                pos = nameEnd;
+            } else {
+                out.append(c);
+                pos++;
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * Rewrite a call of key(name, value, top?) into lookups of the atomized
+     * values in the index of the key.
+     */
+    private String key(int open, int end) throws ValidatorException {
+        final List<String> args = new ArrayList<>();
+        pos = open + 1;
+        int depth = 0;
+        int start = pos;
+        for (; pos < end; pos++) {
+            final char c = xpath.charAt(pos);
+            if (c == '\'' || c == '"') {
+                pos = skipString(pos) - 1;
+            } else if (c == '(' && pos + 1 < end && xpath.charAt(pos + 1) == ':') {
+                pos = skipComment(pos) - 1;
+            } else if (c == '(' || c == '[' || c == '{') {
+                depth++;
+            } else if ((c == ')' || c == ']' || c == '}') && depth > 0) {
+                depth--;
+            } else if ((c == ',' || c == ')') && depth == 0) {
+                args.add(new XPathRewriter(xpath.substring(start, pos), keys).rewrite(pos - start));
+                start = pos + 1;
+                if (c == ')') {
+                    break;
+                }
+            }
+        }
+        pos++;
+        if (args.size() < 2 || args.size() > 3) {
+            throw new ValidatorException("Unsupported key() call in Schematron expression: " + xpath);
+        }
+        final String keyName = args.get(0).trim();
+        final String key = keyName.length() > 1 && (keyName.charAt(0) == '\'' || keyName.charAt(0) == '"')
+                ? keys.get(keyName.substring(1, keyName.length() - 1)) : null;
+        if (key == null) {
+            throw new ValidatorException("Unsupported key " + keyName + " in Schematron expression: " + xpath);
+        }
+        final String lookup = "(for " + KEY_VALUE + " in data((" + args.get(1) + ")) return " + MAP_GET + "(" + key + ", " + KEY_VALUE + "))";
+        if (args.size() == 2) {
+            return lookup + "/.";
+        }
+        return "(for " + KEY_TOP + " in (" + args.get(2) + ") return " + lookup + "[ancestor-or-self::node()[. is " + KEY_TOP + "]])/.";
+    }
+
+    private int skipString(int start) {
+        final char quote = xpath.charAt(start);
+        int i = start + 1;
+        while (i < xpath.length()) {
+            if (xpath.charAt(i) == quote) {
+                if (i + 1 < xpath.length() && xpath.charAt(i + 1) == quote) {
+                    i += 2;
+                    continue;
+                }
+                return i + 1;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    private int skipComment(int start) {
+        int depth = 0;
+        int i = start;
+        while (i < xpath.length()) {
+            if (xpath.startsWith("(:", i)) {
+                depth++;
+                i += 2;
+            } else if (xpath.startsWith(":)", i)) {
+                depth--;
+                i += 2;
+                if (depth == 0) {
+                    return i;
+                }
+            } else {
+                i++;
+            }
+        }
+        return i;
+    }
+
+    private int skipSpace(int start, int end) {
+        int i = start;
+        while (i < end && Character.isWhitespace(xpath.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isNameStart(char c) {
+        return Character.isLetter(c) || c == '_';
+    }
+
+    private static boolean isNameChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == '.' || c == ':' || c == '$' || c == '@';
+    }
+}
@@ -3,59 +3,30 @@ package clarin.cmdi.xml;
 import javax.xml.transform.Source;
 import net.sf.saxon.s9api.Processor;
 import net.sf.saxon.s9api.SaxonApiException;
-import net.sf.saxon.s9api.XPathCompiler;
 import net.sf.saxon.s9api.XPathSelector;
 import net.sf.saxon.s9api.XdmItem;
 import net.sf.saxon.s9api.XdmNode;
-import net.sf.saxon.s9api.XsltCompiler;
 import net.sf.saxon.s9api.XsltExecutable;
 
 /**
  * This class contains some convenience methods for Saxon.
  *
+ * The methods use the default {@link SaxonContext}, i.e., a single Saxon processor.
+ * Any Saxon related instance, e.g., an XML document or an XSLT transform, should share this processor.
+ * Otherwise Saxon will complain as it can't used shared constructs, like the NamePool.
+ * To use another processor, e.g., one with a tuned configuration or one per tenant, use a {@link SaxonContext} instead.
+ *
  * @author menwin
  */
 public class Saxon {
 
     /**
-     * The Saxon processor from which there should be only one.
-     * Any Saxon related instance, e.g., an XML document or an XSLT transform, should share this processor.
-     * Otherwise Saxon will complain as it can't used shared constructs, like the NamePool.
-     */
-    static private Processor sxProcessor = null;
-    /**
-     * The Saxon XSLT compiler.
-     */
-    static private XsltCompiler sxXsltCompiler = null;
-    /**
-     * The Saxon XPath compiler.
-     */
-    static private XPathCompiler sxXPathCompiler = null;
-
-    /**
-     * Get a Saxon processor, i.e., just-in-time create the Singleton.
+     * Get the Saxon processor of the default context, which is created on first use.
      *
      * @return The Saxon processor
      */
-    public static synchronized Processor getProcessor() {
-	if (sxProcessor == null) {
-	    sxProcessor = new Processor(false);
-	}
-	return sxProcessor;
-    }
-
-    private static synchronized XsltCompiler getXsltCompiler() {
-	if (sxXsltCompiler == null) {
-	    sxXsltCompiler = getProcessor().newXsltCompiler();
-	}
-	return sxXsltCompiler;
-    }
-
-    private static synchronized XPathCompiler getXPathCompiler() {
-	if (sxXPathCompiler == null) {
-	    sxXPathCompiler = getProcessor().newXPathCompiler();
-	}
-	return sxXPathCompiler;
+    public static Processor getProcessor() {
+	return SaxonContext.getDefault().getProcessor();
     }
 
     /**
@@ -66,7 +37,7 @@ public class Saxon {
      * @throws SaxonApiException
      */
     static public XdmNode buildDocument(Source src) throws SaxonApiException {
-	return getProcessor().newDocumentBuilder().build(src);
+	return SaxonContext.getDefault().buildDocument(src);
     }
 
     /**
@@ -77,7 +48,7 @@ public class Saxon {
      * @throws SaxonApiException
      */
     static public XsltExecutable buildTransformer(XdmNode xslStylesheet) throws SaxonApiException {
-	return getXsltCompiler().compile(xslStylesheet.asSource());
+	return SaxonContext.getDefault().buildTransformer(xslStylesheet);
     }
 
     /**
@@ -87,7 +58,7 @@ public class Saxon {
      * @param nsUri The actual namespace URI.
      */
     static public void declareXPathNamespace(String nsPrefix, String nsUri) {
-	getXPathCompiler().declareNamespace(nsPrefix, nsUri);
+	SaxonContext.getDefault().declareXPathNamespace(nsPrefix, nsUri);
     }
 
     /**
@@ -98,7 +69,7 @@ public class Saxon {
      * @throws SaxonApiException
      */
     static public XPathSelector compileXPath(String xp) throws SaxonApiException {
-	return getXPathCompiler().compile(xp).load();
+	return SaxonContext.getDefault().compileXPath(xp);
     }
 
     /**
@@ -111,8 +82,6 @@ public class Saxon {
      * @throws SaxonApiException
      */
     static public XPathSelector evaluateXPath(XdmItem ctxt, String xp) throws SaxonApiException {
-	XPathSelector sxXPathSelector = compileXPath(xp);
-	sxXPathSelector.setContextItem(ctxt);
-	return sxXPathSelector;
+	return SaxonContext.getDefault().evaluateXPath(ctxt, xp);
     }
 }
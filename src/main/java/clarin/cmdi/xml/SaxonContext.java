@@ -0,0 +1,221 @@
+package clarin.cmdi.xml;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.xml.transform.Source;
+import net.sf.saxon.Configuration;
+import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XPathCompiler;
+import net.sf.saxon.s9api.XPathExecutable;
+import net.sf.saxon.s9api.XPathSelector;
+import net.sf.saxon.s9api.XdmItem;
+import net.sf.saxon.s9api.XdmNode;
+import net.sf.saxon.s9api.XsltCompiler;
+import net.sf.saxon.s9api.XsltExecutable;
+
+/**
+ * A Saxon processor with its compilers, and the convenience methods of
+ * {@link Saxon} for it.
+ *
+ * Any Saxon related instance, e.g., an XML document or an XSLT transform, should only be used with the processor it was built with.
+ * Otherwise Saxon will complain as it can't used shared constructs, like the NamePool.
+ * A context is safe to use from multiple threads without locking: the processor and the XSLT compiler are never modified after
+ * construction, and XPath expressions are compiled with a fresh compiler for the declared namespaces and cached.
+ */
+public final class SaxonContext {
+
+    /**
+     * The maximum number of compiled XPath expressions to cache per set of namespace declarations.
+     */
+    private static final int XPATH_CACHE_SIZE = 1024;
+
+    /**
+     * The contexts per tenant.
+     */
+    private static final ConcurrentMap<String, SaxonContext> TENANTS = new ConcurrentHashMap<String, SaxonContext>();
+
+    /**
+     * Holds the default context, which is created on first use and safely published by the class loader.
+     */
+    private static final class DefaultHolder {
+
+	static final SaxonContext INSTANCE = new SaxonContext(new Processor(false));
+    }
+
+    /**
+     * The namespace declarations for XPath expressions, and the expressions compiled with them.
+     */
+    private static final class Namespaces {
+
+	final Map<String, String> bindings;
+	final ConcurrentMap<String, XPathExecutable> xpaths = new ConcurrentHashMap<String, XPathExecutable>();
+
+	Namespaces(Map<String, String> bindings) {
+	    this.bindings = bindings;
+	}
+    }
+
+    /**
+     * The Saxon processor.
+     */
+    private final Processor sxProcessor;
+    /**
+     * The Saxon XSLT compiler.
+     */
+    private final XsltCompiler sxXsltCompiler;
+    /**
+     * The current namespace declarations, replaced as a whole on every new declaration.
+     */
+    private final AtomicReference<Namespaces> sxNamespaces = new AtomicReference<Namespaces>(new Namespaces(new HashMap<String, String>()));
+
+    /**
+     * Create a context for a Saxon processor.
+     *
+     * @param processor The Saxon processor
+     */
+    public SaxonContext(Processor processor) {
+	this.sxProcessor = processor;
+	this.sxXsltCompiler = processor.newXsltCompiler();
+    }
+
+    /**
+     * Create a context with a Saxon processor for a Saxon configuration, e.g., to tune the document tree model or the parser.
+     *
+     * @param configuration The Saxon configuration
+     */
+    public SaxonContext(Configuration configuration) {
+	this(new Processor(configuration));
+    }
+
+    /**
+     * Get the default context, i.e., the one used by the static methods of {@link Saxon}.
+     *
+     * @return The default context
+     */
+    public static SaxonContext getDefault() {
+	return DefaultHolder.INSTANCE;
+    }
+
+    /**
+     * Get the context of a tenant, which has its own Saxon processor and so doesn't share the NamePool or the caches of
+     * Saxon with other tenants. The context is created on first use, and kept until it is released.
+     *
+     * @see #release(String)
+     * @param tenant The name of the tenant
+     * @return The context of the tenant
+     */
+    public static SaxonContext forTenant(String tenant) {
+	SaxonContext context = TENANTS.get(tenant);
+	if (context == null) {
+	    final SaxonContext created = new SaxonContext(new Processor(false));
+	    context = TENANTS.putIfAbsent(tenant, created);
+	    if (context == null) {
+		context = created;
+	    }
+	}
+	return context;
+    }
+
+    /**
+     * Release the context of a tenant, e.g., when the tenant is gone, so its Saxon processor can be garbage collected once
+     * the Validators and documents using it are. The next call of {@link #forTenant(String)} creates a new context.
+     *
+     * @param tenant The name of the tenant
+     * @return The released context, or null if the tenant had none
+     */
+    public static SaxonContext release(String tenant) {
+	return TENANTS.remove(tenant);
+    }
+
+    /**
+     * @return The Saxon processor
+     */
+    public Processor getProcessor() {
+	return sxProcessor;
+    }
+
+    /**
+     * Load an XML document.
+     *
+     * @param src The source of the document.
+     * @return A Saxon XDM node
+     * @throws SaxonApiException
+     */
+    public XdmNode buildDocument(Source src) throws SaxonApiException {
+	return sxProcessor.newDocumentBuilder().build(src);
+    }
+
+    /**
+     * Compile an XLST document. To use compiled XSLT document use the load() method to turn it into a XsltTransformer.
+     *
+     * @param xslStylesheet
+     * @return An Saxon XSLT executable, which can be shared.
+     * @throws SaxonApiException
+     */
+    public XsltExecutable buildTransformer(XdmNode xslStylesheet) throws SaxonApiException {
+	return sxXsltCompiler.compile(xslStylesheet.asSource());
+    }
+
+    /**
+     * Declare an XML namespace to be used in XPath expressions. Declaring the same namespace again is cheap, and
+     * doesn't invalidate the compiled expressions.
+     *
+     * @param nsPrefix The prefix used by the XPath expression to refer to the namespace.
+     * @param nsUri The actual namespace URI.
+     */
+    public void declareXPathNamespace(String nsPrefix, String nsUri) {
+	while (true) {
+	    final Namespaces current = sxNamespaces.get();
+	    if (nsUri.equals(current.bindings.get(nsPrefix))) {
+		return;
+	    }
+	    final Map<String, String> bindings = new HashMap<String, String>(current.bindings);
+	    bindings.put(nsPrefix, nsUri);
+	    if (sxNamespaces.compareAndSet(current, new Namespaces(bindings))) {
+		return;
+	    }
+	}
+    }
+
+    /**
+     * Compile an XPath expression. Use evaluate(), evaluateSingle() or iterator() to actually execute the XPath expression.
+     *
+     * @param xp The XPath expression.
+     * @return A compiled XPath expression.
+     * @throws SaxonApiException
+     */
+    public XPathSelector compileXPath(String xp) throws SaxonApiException {
+	final Namespaces namespaces = sxNamespaces.get();
+	XPathExecutable executable = namespaces.xpaths.get(xp);
+	if (executable == null) {
+	    final XPathCompiler compiler = sxProcessor.newXPathCompiler();
+	    for (Map.Entry<String, String> binding : namespaces.bindings.entrySet()) {
+		compiler.declareNamespace(binding.getKey(), binding.getValue());
+	    }
+	    executable = compiler.compile(xp);
+	    if (namespaces.xpaths.size() < XPATH_CACHE_SIZE) {
+		namespaces.xpaths.putIfAbsent(xp, executable);
+	    }
+	}
+	return executable.load();
+    }
+
+    /**
+     * Compile an XPath expression and set the context item. Use evaluate(), evaluateSingle() or iterator() to actually execute the XPath
+     * expression.
+     *
+     * @param ctxt The context item.
+     * @param xp The XPath expression.
+     * @return A compiled XPath expression.
+     * @throws SaxonApiException
+     */
+    public XPathSelector evaluateXPath(XdmItem ctxt, String xp) throws SaxonApiException {
+	XPathSelector sxXPathSelector = compileXPath(xp);
+	sxXPathSelector.setContextItem(ctxt);
+	return sxXPathSelector;
+    }
+}
@@ -0,0 +1,41 @@
+<?xml version="1.0" encoding="UTF-8"?>
+<!--
+    Adds a phase to a Schematron schema that activates an explicit list of
+    patterns, so the SVRL XSLT can be compiled for just these patterns.
+-->
+<xsl:stylesheet version="2.0"
+    xmlns:xsl="http://www.w3.org/1999/XSL/Transform"
+    xmlns:xs="http://www.w3.org/2001/XMLSchema"
+    xmlns:sch="http://purl.oclc.org/dsdl/schematron"
+    exclude-result-prefixes="xs">
+
+    <!-- id of the phase to add -->
+    <xsl:param name="phase" as="xs:string"/>
+    <!-- ids of the patterns to activate -->
+    <xsl:param name="patterns" as="xs:string*"/>
+
+    <xsl:template match="@*|node()">
+        <xsl:copy>
+            <xsl:apply-templates select="@*|node()"/>
+        </xsl:copy>
+    </xsl:template>
+
+    <xsl:template match="sch:schema">
+        <xsl:for-each select="$patterns[not(. = current()/sch:pattern/@id)]">
+            <xsl:message terminate="yes">Unknown Schematron pattern: <xsl:value-of select="."/></xsl:message>
+        </xsl:for-each>
+        <xsl:copy>
+            <xsl:apply-templates select="@*|node()"/>
+        </xsl:copy>
+    </xsl:template>
+
+    <xsl:template match="sch:pattern[empty(preceding-sibling::sch:pattern)]">
+        <sch:phase id="{$phase}">
+            <xsl:for-each select="$patterns">
+                <sch:active pattern="{.}"/>
+            </xsl:for-each>
+        </sch:phase>
+        <xsl:next-match/>
+    </xsl:template>
+
+</xsl:stylesheet>
@@ -16,7 +16,7 @@ import org.junit.runners.Suite;
  * @author menwin
  */
 @RunWith(Suite.class)
-@Suite.SuiteClasses({clarin.cmdi.schema.cmd.TestCMDValidate.class})
+@Suite.SuiteClasses({clarin.cmdi.schema.cmd.TestCMDValidate.class, clarin.cmdi.schema.cmd.TestCMDValidateNative.class, clarin.cmdi.schema.cmd.TestArchiveValidation.class, clarin.cmdi.schema.cmd.TestReportWriters.class, clarin.cmdi.schema.cmd.TestValidationServer.class, clarin.cmdi.schema.cmd.TestValidationWatcher.class, clarin.cmdi.schema.cmd.TestBulkValidation.class, clarin.cmdi.schema.cmd.TestConcurrentValidation.class})
 public class CMDValidateTestSuite {
 
     @BeforeClass
@@ -0,0 +1,172 @@
+package clarin.cmdi.schema.cmd;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+/**
+ * Validates CMD profiles/components from gzip files, zip and tar archives, on
+ * one and on several threads.
+ */
+public class TestArchiveValidation {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final String VALID = "CLARINWebService.xml";
+    private static final String INVALID = "CLARINWebService_faulty-1.xml";
+    private static final String LONG_DIR = "a-directory-with-a-name-that-is-long-enough-to-need-the-gnu-extension-for-long-names-in-tar/";
+
+    private static byte[] doc(String prof) throws Exception {
+        return Files.readAllBytes(new File(TestArchiveValidation.class.getResource("/docs/" + prof).toURI()).toPath());
+    }
+
+    private Validator createValidator() {
+        Validator validator = new Validator(getClass().getResource("/schema/cmd-component.xsd"));
+        validator.setResourceResolver(new ResourceResolver());
+        return validator;
+    }
+
+    /**
+     * Read an archive and return the content of its entries.
+     */
+    private static Map<String, String> entries(File archive) throws IOException {
+        final Map<String, String> entries = new TreeMap<>();
+        ArchiveReader.read(archive.toPath(), new ArchiveReader.EntryHandler() {
+            @Override
+            public void entry(String name, InputStream content) throws IOException {
+                entries.put(name.substring(archive.toString().length()), new String(content.readAllBytes(), StandardCharsets.UTF_8));
+            }
+        });
+        return entries;
+    }
+
+    /**
+     * Validate the entries of an archive and return their status.
+     */
+    private Map<String, ValidationResult.Status> validate(File archive, int threads) throws Exception {
+        final Validator validator = createValidator();
+        validator.initialize();
+        final Map<String, ValidationResult.Status> results = new TreeMap<>();
+        final ReportWriter report = new ReportWriter() {
+            @Override
+            public void write(ValidationResult result) {
+                results.put(result.getDocument().substring(archive.toString().length()), result.getStatus());
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        try (ValidationPool pool = new ValidationPool(validator, null, report, threads)) {
+            ArchiveReader.read(archive.toPath(), new ArchiveReader.EntryHandler() {
+                @Override
+                public void entry(String name, InputStream content) throws IOException {
+                    pool.validate(name, null, content);
+                }
+            });
+        }
+        return results;
+    }
+
+    private File zip() throws Exception {
+        final File zip = folder.newFile("docs.zip");
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip))) {
+            out.putNextEntry(new ZipEntry("docs/"));
+            out.putNextEntry(new ZipEntry("docs/" + VALID));
+            out.write(doc(VALID));
+            out.putNextEntry(new ZipEntry("docs/README"));
+            out.write("not a document".getBytes(StandardCharsets.UTF_8));
+            out.putNextEntry(new ZipEntry("docs/" + INVALID));
+            out.write(doc(INVALID));
+        }
+        return zip;
+    }
+
+    private File tar(String name, boolean gzip) throws Exception {
+        final File tar = folder.newFile(name);
+        try (OutputStream out = gzip ? new GZIPOutputStream(new FileOutputStream(tar)) : new FileOutputStream(tar)) {
+            writeTarEntry(out, "docs/", '5', new byte[0]);
+            writeTarEntry(out, "docs/" + VALID, '0', doc(VALID));
+            writeTarEntry(out, "docs/README", '0', "not a document".getBytes(StandardCharsets.UTF_8));
+            final byte[] longName = (LONG_DIR + INVALID).getBytes(StandardCharsets.UTF_8);
+            writeTarEntry(out, "././@LongLink", 'L', longName);
+            writeTarEntry(out, (LONG_DIR + INVALID).substring(0, 99), '0', doc(INVALID));
+            out.write(new byte[1024]);
+        }
+        return tar;
+    }
+
+    private static void writeTarEntry(OutputStream out, String name, char type, byte[] content) throws IOException {
+        final byte[] header = new byte[512];
+        final byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(nameBytes, 0, header, 0, nameBytes.length);
+        final byte[] size = String.format("%011o", content.length).getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(size, 0, header, 124, size.length);
+        header[156] = (byte) type;
+        System.arraycopy("ustar".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 5);
+        out.write(header);
+        out.write(content);
+        out.write(new byte[(512 - content.length % 512) % 512]);
+    }
+
+    @Test
+    public void readZip() throws Exception {
+        final Map<String, String> entries = entries(zip());
+        assertEquals(2, entries.size());
+        assertEquals(new String(doc(VALID), StandardCharsets.UTF_8), entries.get("!/docs/" + VALID));
+        assertTrue(entries.containsKey("!/docs/" + INVALID));
+    }
+
+    @Test
+    public void readTar() throws Exception {
+        final Map<String, String> entries = entries(tar("docs.tar", false));
+        assertEquals(2, entries.size());
+        assertEquals(new String(doc(VALID), StandardCharsets.UTF_8), entries.get("!/docs/" + VALID));
+        assertEquals(new String(doc(INVALID), StandardCharsets.UTF_8), entries.get("!/" + LONG_DIR + INVALID));
+    }
+
+    @Test
+    public void readGzip() throws Exception {
+        final File gz = folder.newFile(VALID + ".gz");
+        try (OutputStream out = new GZIPOutputStream(new FileOutputStream(gz))) {
+            out.write(doc(VALID));
+        }
+        final Map<String, String> entries = entries(gz);
+        assertEquals(1, entries.size());
+        assertEquals(new String(doc(VALID), StandardCharsets.UTF_8), entries.get(""));
+    }
+
+    @Test
+    public void validateTgz() throws Exception {
+        final File tgz = tar("docs.tgz", true);
+        final Map<String, ValidationResult.Status> sequential = validate(tgz, 1);
+        assertEquals(ValidationResult.Status.VALID, sequential.get("!/docs/" + VALID));
+        assertEquals(ValidationResult.Status.INVALID, sequential.get("!/" + LONG_DIR + INVALID));
+        assertEquals(sequential, validate(tgz, 4));
+    }
+
+    @Test
+    public void validateZip() throws Exception {
+        final File zip = zip();
+        final Map<String, ValidationResult.Status> sequential = validate(zip, 1);
+        assertEquals(ValidationResult.Status.VALID, sequential.get("!/docs/" + VALID));
+        assertEquals(ValidationResult.Status.INVALID, sequential.get("!/docs/" + INVALID));
+        assertEquals(sequential, validate(zip, 4));
+    }
+}
@@ -0,0 +1,189 @@
+package clarin.cmdi.schema.cmd;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the shards of a manifest, resumes a killed run from its checkpoint and
+ * merges result files.
+ */
+public class TestBulkValidation {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Validator validator;
+    private Path manifest;
+    private final List<String> files = new ArrayList<>();
+
+    private static Path doc(String prof) throws Exception {
+        return new File(TestBulkValidation.class.getResource("/docs/" + prof).toURI()).toPath();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        validator = new Validator(getClass().getResource("/schema/cmd-component.xsd"));
+        validator.setResourceResolver(new ResourceResolver());
+        validator.setSchematronEngine(Validator.SchematronEngine.NATIVE);
+        validator.initialize();
+        Path dir = folder.newFolder("docs").toPath();
+        List<String> lines = new ArrayList<>();
+        lines.add("# a comment");
+        for (int i = 1; i <= 5; i++) {
+            Path f = dir.resolve(i + ".xml");
+            Files.copy(doc(i % 2 == 0 ? "CLARINWebService_faulty-8.xml" : "CLARINWebService.xml"), f);
+            files.add(f.toString());
+            lines.add(f.toString());
+            lines.add("");
+        }
+        manifest = folder.getRoot().toPath().resolve("manifest.txt");
+        Files.write(manifest, lines, StandardCharsets.UTF_8);
+    }
+
+    private String run(int shard, int shards, Path results) throws Exception {
+        return run(shard, shards, 1, results);
+    }
+
+    private String run(int shard, int shards, int threads, Path results) throws Exception {
+        ByteArrayOutputStream progress = new ByteArrayOutputStream();
+        new BulkValidation(validator, null, shard, shards, threads).run(manifest, results, checkpoint(results), new PrintStream(progress, true, "UTF-8"));
+        return new String(progress.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static Path checkpoint(Path results) {
+        return results.resolveSibling(results.getFileName() + ".checkpoint");
+    }
+
+    private static List<String> documents(Path results) throws Exception {
+        List<String> documents = new ArrayList<>();
+        for (String line : Files.readAllLines(results, StandardCharsets.UTF_8)) {
+            documents.add(BulkValidation.parseRecord(line).get("document"));
+        }
+        return documents;
+    }
+
+    private static String merge(Path... results) throws Exception {
+        List<String> names = new ArrayList<>();
+        for (Path result : results) {
+            names.add(result.toString());
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BulkValidation.merge(names, new PrintStream(out, true, "UTF-8"));
+        return new String(out.toByteArray(), StandardCharsets.UTF_8).trim();
+    }
+
+    @Test
+    public void shards() throws Exception {
+        Path first = folder.getRoot().toPath().resolve("results-1-of-2.jsonl");
+        Path second = folder.getRoot().toPath().resolve("results-2-of-2.jsonl");
+        assertTrue(run(1, 2, first).contains("3 validated, 0 skipped"));
+        assertTrue(run(2, 2, second).contains("2 validated, 0 skipped"));
+        assertEquals(Arrays.asList(files.get(0), files.get(2), files.get(4)), documents(first));
+        assertEquals(Arrays.asList(files.get(1), files.get(3)), documents(second));
+        assertEquals(Arrays.asList(files.get(0), files.get(2), files.get(4)), Files.readAllLines(checkpoint(first), StandardCharsets.UTF_8));
+        assertEquals("{\"documents\":5,\"valid\":3,\"invalid\":2,\"failed\":0,\"timeout\":0,\"cancelled\":0,\"errors\":10,\"warnings\":0,\"duplicates\":0,\"unreadable\":0}",
+                merge(first, second));
+    }
+
+    @Test
+    public void resume() throws Exception {
+        Path results = folder.getRoot().toPath().resolve("results.jsonl");
+        // the 5th file fails, e.g., as it is being copied
+        byte[] doc = Files.readAllBytes(doc("CLARINWebService.xml"));
+        Files.write(Paths.get(files.get(4)), Arrays.copyOf(doc, doc.length / 2));
+        assertTrue(run(1, 1, results).contains("5 validated"));
+        assertEquals(files.subList(0, 4), Files.readAllLines(checkpoint(results), StandardCharsets.UTF_8));
+
+        // a run killed while writing the 4th result: its record is cut short, and it isn't checkpointed
+        List<String> records = Files.readAllLines(results, StandardCharsets.UTF_8);
+        Files.write(results, (records.get(0) + "\n" + records.get(1) + "\n" + records.get(2) + "\n" + records.get(3).substring(0, 30)).getBytes(StandardCharsets.UTF_8));
+        Files.write(checkpoint(results), (files.get(0) + "\n" + files.get(1) + "\n" + files.get(2) + "\n" + files.get(3).substring(0, 5)).getBytes(StandardCharsets.UTF_8));
+
+        assertTrue(run(1, 1, results).contains("2 validated, 3 skipped"));
+        assertEquals(files, documents(results));
+        assertEquals("failed", BulkValidation.parseRecord(Files.readAllLines(results, StandardCharsets.UTF_8).get(4)).get("status"));
+        assertEquals(files.subList(0, 4), Files.readAllLines(checkpoint(results), StandardCharsets.UTF_8));
+
+        // the failed file is validated again
+        Files.write(Paths.get(files.get(4)), doc);
+        assertTrue(run(1, 1, results).contains("1 validated, 4 skipped"));
+        assertEquals(files, Files.readAllLines(checkpoint(results), StandardCharsets.UTF_8));
+        assertTrue(run(1, 1, results).contains("0 validated, 5 skipped"));
+        assertEquals("{\"documents\":5,\"valid\":3,\"invalid\":2,\"failed\":0,\"timeout\":0,\"cancelled\":0,\"errors\":10,\"warnings\":0,\"duplicates\":1,\"unreadable\":0}",
+                merge(results));
+    }
+
+    @Test
+    public void archiveOnThreads() throws Exception {
+        Path zip = folder.getRoot().toPath().resolve("docs.zip");
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip))) {
+            for (int i = 1; i <= 4; i++) {
+                out.putNextEntry(new ZipEntry("dir/" + i + ".xml"));
+                Files.copy(doc(i % 2 == 0 ? "CLARINWebService_faulty-8.xml" : "CLARINWebService.xml"), out);
+                out.closeEntry();
+            }
+        }
+        Files.write(manifest, Arrays.asList(files.get(0), zip.toString()), StandardCharsets.UTF_8);
+        Path results = folder.getRoot().toPath().resolve("results.jsonl");
+        // an entry that was done before
+        Files.write(checkpoint(results), Arrays.asList(zip + "!/dir/2.xml"), StandardCharsets.UTF_8);
+
+        assertTrue(run(1, 1, 3, results).contains("4 validated, 1 skipped"));
+        List<String> documents = documents(results);
+        assertEquals(4, documents.size());
+        assertTrue(documents.containsAll(Arrays.asList(files.get(0), zip + "!/dir/1.xml", zip + "!/dir/3.xml", zip + "!/dir/4.xml")));
+        assertTrue(run(1, 1, 3, results).contains("0 validated, 5 skipped"));
+        assertEquals("{\"documents\":4,\"valid\":3,\"invalid\":1,\"failed\":0,\"timeout\":0,\"cancelled\":0,\"errors\":5,\"warnings\":0,\"duplicates\":0,\"unreadable\":0}",
+                merge(results));
+    }
+
+    @Test
+    public void merge() throws Exception {
+        Path first = folder.newFile("first.jsonl").toPath();
+        Path second = folder.newFile("second.jsonl").toPath();
+        Files.write(first, Arrays.asList(
+                "{\"document\":\"a.xml\",\"status\":\"invalid\",\"valid\":false,\"durationMs\":5,\"errors\":2,\"warnings\":1,\"messages\":[{\"text\":\"}]\\\"document\\\":\"}]}",
+                "{\"status\":\"valid\", \"errors\": 0, \"warnings\": 0, \"document\": \"b\\u00e9.xml\"}",
+                "{\"document\":\"c.xml\",\"status\":\"vali"), StandardCharsets.UTF_8);
+        Files.write(second, Arrays.asList(
+                "{\"document\":\"a.xml\",\"status\":\"valid\",\"valid\":true,\"durationMs\":5,\"errors\":0,\"warnings\":3,\"messages\":[]}",
+                "{\"document\":\"d.xml\",\"status\":\"failed\",\"errors\":0,\"warnings\":0,\"failure\":\"java.io.IOException: \\\"x\\\"\"}",
+                "{\"document\":\"e.xml\",\"status\":\"valid\",\"errors\":\"many\",\"warnings\":0}",
+                "not json"), StandardCharsets.UTF_8);
+        assertEquals("{\"documents\":3,\"valid\":2,\"invalid\":0,\"failed\":1,\"timeout\":0,\"cancelled\":0,\"errors\":0,\"warnings\":3,\"duplicates\":1,\"unreadable\":3}",
+                merge(first, second));
+    }
+
+    @Test
+    public void parseRecord() {
+        Map<String, String> record = BulkValidation.parseRecord("{\"document\":\"x\\\\y\\n\\u0041\",\"valid\":true,\"context\":null,\"messages\":[{\"a\":[1,{}]}],\"errors\":12}");
+        assertEquals("x\\y\nA", record.get("document"));
+        assertEquals("true", record.get("valid"));
+        assertEquals("12", record.get("errors"));
+        assertNull(record.get("context"));
+        assertNull(record.get("messages"));
+        assertTrue(record.containsKey("messages"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parseRecord_trailing() {
+        BulkValidation.parseRecord("{\"document\":\"x\"}{\"document\":\"y\"}");
+    }
+}
@@ -1,8 +1,22 @@
 package clarin.cmdi.schema.cmd;
 
 import clarin.cmdi.schema.cmd.Validator.Message;
+import clarin.cmdi.xml.Saxon;
+import clarin.cmdi.xml.SaxonContext;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import javax.xml.transform.Source;
+import javax.xml.transform.stream.StreamSource;
+import net.sf.saxon.s9api.XdmNode;
 import org.junit.*;
 
 import static org.junit.Assert.*;
@@ -18,8 +32,13 @@ public class TestCMDValidate {
 
     @Before
     public void setUp() {
-        cmdValidator = new Validator(getClass().getResource("/schema/cmd-component.xsd"));
-        cmdValidator.setResourceResolver(new ResourceResolver());
+        cmdValidator = createValidator();
+    }
+
+    protected Validator createValidator() {
+        Validator validator = new Validator(getClass().getResource("/schema/cmd-component.xsd"));
+        validator.setResourceResolver(new ResourceResolver());
+        return validator;
     }
 
     @After
@@ -33,7 +52,7 @@ public class TestCMDValidate {
 
     protected boolean validate(String prof, String phase) throws Exception {
         System.out.print("Test CMD validation [" + prof + "] ");
-        Source src = new javax.xml.transform.stream.StreamSource(new java.io.File(TestCMDValidate.class.getResource("/docs/" + prof).toURI()));
+        Source src = source(prof);
         if (phase != null) {
             cmdValidator.setSchematronPhase(phase);
         }
@@ -195,5 +214,183 @@ public class TestCMDValidate {
         assertTrue("Should be valid with phase " + phase, validate("CLARINWebService_faulty-10.xml", phase));
     }
 
+    protected boolean validatePatterns(String prof, String... patterns) throws Exception {
+        return cmdValidator.validateProfile(source(prof), new HashSet<String>(Arrays.asList(patterns)));
+    }
+
+    @Test
+    public void patterns_8() throws Exception {
+        assertFalse(validatePatterns("CLARINWebService_faulty-8.xml", "c_card", "v_uri"));
+        assertEquals(5, cmdValidator.getMessages().size());
+        assertTrue(validatePatterns("CLARINWebService_faulty-8.xml", "v_uri"));
+        assertEquals(0, cmdValidator.getMessages().size());
+    }
+
+    @Test
+    public void patterns_10() throws Exception {
+        assertTrue(validatePatterns("CLARINWebService_faulty-10.xml", "h_succ", "c_sibs"));
+        assertFalse(validatePatterns("CLARINWebService_faulty-10.xml", "h_id"));
+        final List<Message> messages = cmdValidator.getMessages();
+        assertEquals(1, messages.size());
+        assertEquals("/ComponentSpec[1]", messages.get(0).location);
+    }
+
+    @Test(expected = ValidatorException.class)
+    public void patterns_unknown() throws Exception {
+        validatePatterns("CLARINWebService.xml", "no_such_pattern");
+    }
+
+    @Test
+    public void patterns_initialized() throws Exception {
+        Set<String> patterns = new HashSet<String>(Arrays.asList("c_card", "v_uri"));
+        cmdValidator.initialize(patterns);
+        for (int i = 0; i < 2; i++) {
+            assertFalse(cmdValidator.validateProfile(source("CLARINWebService_faulty-8.xml"), patterns, Cancellation.withTimeout(60000)));
+            assertEquals(5, cmdValidator.getMessages().size());
+        }
+    }
+
+    @Test(expected = ValidatorException.class)
+    public void patterns_unknown_initialize() throws Exception {
+        cmdValidator.initialize(Collections.singleton("no_such_pattern"));
+    }
+
+    private static File file(String prof) throws Exception {
+        return new File(TestCMDValidate.class.getResource("/docs/" + prof).toURI());
+    }
+
+    private static Source source(String prof) throws Exception {
+        return new StreamSource(file(prof));
+    }
+
+    private static Cancellation newCancelled() {
+        Cancellation cancellation = new Cancellation();
+        cancellation.cancel();
+        return cancellation;
+    }
+
+    @Test
+    public void notCancelled() throws Exception {
+        assertFalse(cmdValidator.validateProfile(source("CLARINWebService_faulty-8.xml"), null, new Cancellation()));
+        assertEquals(5, cmdValidator.getMessages().size());
+    }
+
+    @Test
+    public void cancelled() throws Exception {
+        ValidationResult result = cmdValidator.validate("CLARINWebService.xml", source("CLARINWebService.xml"), null, newCancelled());
+        assertEquals(ValidationResult.Status.CANCELLED, result.getStatus());
+        assertTrue(result.getFailure() instanceof ValidationCancelledException);
+    }
+
+    @Test
+    public void timeout() throws Exception {
+        cmdValidator.initialize();
+        Cancellation cancellation = Cancellation.withTimeout(1);
+        Thread.sleep(5);
+        ValidationResult result = cmdValidator.validate("CLARINWebService.xml", source("CLARINWebService.xml"), null, cancellation);
+        assertEquals(ValidationResult.Status.TIMEOUT, result.getStatus());
+        assertEquals(ValidationResult.Status.VALID, cmdValidator.validate("CLARINWebService.xml", source("CLARINWebService.xml"), null, null).getStatus());
+    }
+
+    @Test(expected = ValidationCancelledException.class)
+    public void cancelled_xsd() throws Exception {
+        XdmNode doc = Saxon.buildDocument(source("CLARINWebService.xml"));
+        cmdValidator.validateXSD(doc, newCancelled());
+    }
+
+    @Test(expected = ValidationCancelledException.class)
+    public void cancelled_schematron() throws Exception {
+        XdmNode doc = Saxon.buildDocument(source("CLARINWebService_faulty-8.xml"));
+        cmdValidator.validateSchematron(doc, null, newCancelled());
+    }
+
+    @Test
+    public void tenant() throws Exception {
+        SaxonContext tenant = SaxonContext.forTenant("test");
+        assertSame(tenant, SaxonContext.forTenant("test"));
+        assertNotSame(SaxonContext.getDefault().getProcessor(), tenant.getProcessor());
+        cmdValidator.setSaxonContext(tenant);
+        assertFalse(validate("CLARINWebService_faulty-8.xml"));
+        assertEquals(5, cmdValidator.getMessages().size());
+        assertSame(tenant, new Validator(cmdValidator).getSaxonContext());
+        assertSame(tenant, SaxonContext.release("test"));
+        assertNull(SaxonContext.release("test"));
+        assertNotSame(tenant, SaxonContext.forTenant("test"));
+        SaxonContext.release("test");
+    }
+
+    private void assertRejected(Source src, Validator.PreCheck preCheck, String problem) throws Exception {
+        cmdValidator.setPreCheck(preCheck);
+        assertFalse(cmdValidator.validateProfile(src));
+        List<Message> messages = cmdValidator.getMessages();
+        assertEquals(1, messages.size());
+        assertTrue(messages.get(0).isError());
+        assertTrue(messages.get(0).getText(), messages.get(0).getText().contains(problem));
+    }
+
+    @Test
+    public void preCheck_record() throws Exception {
+        String record = "<?xml version=\"1.0\"?>\n<CMD xmlns=\"http://www.clarin.eu/cmd/1\" CMDVersion=\"1.2\"><Header/></CMD>";
+        assertRejected(new StreamSource(new StringReader(record)), Validator.PreCheck.ROOT, "CMD record");
+    }
+
+    @Test
+    public void preCheck_root() throws Exception {
+        byte[] other = "<!-- not CMD --><html><body/></html>".getBytes("UTF-8");
+        assertRejected(new StreamSource(new ByteArrayInputStream(other)), Validator.PreCheck.ROOT, "root element is html");
+    }
+
+    @Test
+    public void preCheck_truncated() throws Exception {
+        byte[] doc = Files.readAllBytes(file("CLARINWebService.xml").toPath());
+        byte[] truncated = Arrays.copyOf(doc, doc.length / 2);
+        // the root element is fine, so the truncation is only found while loading
+        assertRejected(new StreamSource(new ByteArrayInputStream(truncated)), Validator.PreCheck.WELLFORMED, "not well-formed");
+        assertRejected(new StreamSource(new StringReader(new String(truncated, "UTF-8"))), Validator.PreCheck.WELLFORMED, "not well-formed");
+        cmdValidator.setPreCheck(Validator.PreCheck.ROOT);
+        assertEquals(ValidationResult.Status.FAILED, cmdValidator.validate("truncated", new StreamSource(new ByteArrayInputStream(truncated))).getStatus());
+    }
+
+    @Test
+    public void preCheck_passes() throws Exception {
+        byte[] doc = Files.readAllBytes(file("CLARINWebService_faulty-8.xml").toPath());
+        for (Validator.PreCheck preCheck : Validator.PreCheck.values()) {
+            cmdValidator.setPreCheck(preCheck);
+            assertFalse(preCheck.name(), cmdValidator.validateProfile(source("CLARINWebService_faulty-8.xml")));
+            assertEquals(preCheck.name(), 5, cmdValidator.getMessages().size());
+            assertFalse(preCheck.name(), cmdValidator.validateProfile(new StreamSource(new ByteArrayInputStream(doc))));
+            assertEquals(preCheck.name(), 5, cmdValidator.getMessages().size());
+            assertFalse(preCheck.name(), cmdValidator.validateProfile(new StreamSource(new StringReader(new String(doc, "UTF-8")))));
+            assertEquals(preCheck.name(), 5, cmdValidator.getMessages().size());
+        }
+    }
+
+    @Test
+    public void preCheck_dtd() throws Exception {
+        String doc = new String(Files.readAllBytes(file("CLARINWebService.xml").toPath()), "UTF-8");
+        String withDtd = doc.replace("?><ComponentSpec", "?>\n<!DOCTYPE ComponentSpec [\n<!ENTITY name \"CLARINWebService\">\n]>\n<ComponentSpec")
+                .replace("<Name>CLARINWebService</Name>", "<Name>&name;</Name>");
+        for (Validator.PreCheck preCheck : Validator.PreCheck.values()) {
+            cmdValidator.setPreCheck(preCheck);
+            assertTrue(preCheck.name(), cmdValidator.validateProfile(new StreamSource(new StringReader(withDtd))));
+            assertTrue(preCheck.name(), cmdValidator.validateProfile(new StreamSource(new ByteArrayInputStream(withDtd.getBytes("UTF-8")))));
+        }
+        // an external DTD isn't loaded by the check
+        String withExternalDtd = doc.replace("?><ComponentSpec", "?><!DOCTYPE ComponentSpec SYSTEM \"http://localhost:1/cmd.dtd\"><ComponentSpec");
+        assertNull(new PreChecker(new StreamSource(new StringReader(withExternalDtd))).check());
+    }
+
+    @Test
+    public void preCheck_relativeSystemId() throws Exception {
+        Path doc = file("CLARINWebService_faulty-8.xml").toPath();
+        String relative = Paths.get("").toAbsolutePath().relativize(doc).toString().replace(File.separatorChar, '/');
+        for (Validator.PreCheck preCheck : Validator.PreCheck.values()) {
+            cmdValidator.setPreCheck(preCheck);
+            assertFalse(preCheck.name(), cmdValidator.validateProfile(new StreamSource(relative)));
+            assertEquals(preCheck.name(), 5, cmdValidator.getMessages().size());
+        }
+        assertEquals(ValidationResult.Status.FAILED, cmdValidator.validate("missing", new StreamSource(relative + ".missing")).getStatus());
+    }
+
     //add test for schematron phase
 }
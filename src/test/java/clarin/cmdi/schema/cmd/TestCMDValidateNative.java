@@ -0,0 +1,190 @@
+package clarin.cmdi.schema.cmd;
+
+import clarin.cmdi.schema.cmd.Validator.Message;
+import clarin.cmdi.schema.cmd.Validator.SchematronEngine;
+import java.io.File;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import javax.xml.transform.Source;
+import javax.xml.transform.stream.StreamSource;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the tests of {@link TestCMDValidate} with the native Schematron engine,
+ * and checks that both engines report the same messages.
+ */
+public class TestCMDValidateNative extends TestCMDValidate {
+
+    private static final String[] DOCS = {
+        "CLARINWebService.xml",
+        "CLARINWebService_faulty-1.xml",
+        "CLARINWebService_faulty-2.xml",
+        "CLARINWebService_faulty-3.xml",
+        "CLARINWebService_faulty-4.xml",
+        "CLARINWebService_faulty-5.xml",
+        "CLARINWebService_faulty-6.xml",
+        "CLARINWebService_faulty-7.xml",
+        "CLARINWebService_faulty-8.xml",
+        "CLARINWebService_faulty-9.xml",
+        "CLARINWebService_faulty-10.xml"
+    };
+
+    /**
+     * A document for the Schematron construct fixtures, e.g.,
+     * schematron-extends.xsd
+     */
+    private static final String CONSTRUCTS = "<doc><group name=\"g\"><item n=\"1\" name=\"a\"/><item n=\"x\" name=\" \"/></group>"
+            + "<group><item n=\"2\" name=\"b\"/><item n=\"3\"/></group></doc>";
+
+    @Override
+    protected Validator createValidator() {
+        Validator validator = super.createValidator();
+        validator.setSchematronEngine(SchematronEngine.NATIVE);
+        return validator;
+    }
+
+    private static Source source(String prof) throws Exception {
+        return new javax.xml.transform.stream.StreamSource(new java.io.File(TestCMDValidateNative.class.getResource("/docs/" + prof).toURI()));
+    }
+
+    private void assertSameMessages(String phase) throws Exception {
+        Validator xslt = super.createValidator();
+        Validator nativ = createValidator();
+        xslt.setSchematronPhase(phase);
+        nativ.setSchematronPhase(phase);
+        for (String doc : DOCS) {
+            assertEquals(doc, xslt.validateProfile(source(doc)), nativ.validateProfile(source(doc)));
+            assertSameMessages(doc, xslt.getMessages(), nativ.getMessages());
+        }
+    }
+
+    private static void assertSameMessages(String doc, List<Message> expected, List<Message> actual) {
+        assertEquals(doc, expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Message e = expected.get(i);
+            Message a = actual.get(i);
+            assertEquals(doc, e.isError(), a.isError());
+            assertEquals(doc, e.getContext(), a.getContext());
+            assertEquals(doc, e.getTest(), a.getTest());
+            assertEquals(doc, e.getLocation(), a.getLocation());
+            assertEquals(doc, e.getText(), a.getText());
+        }
+    }
+
+    @Test
+    public void sameMessages() throws Exception {
+        assertSameMessages(null);
+    }
+
+    @Test
+    public void sameMessages_preRegPhase() throws Exception {
+        assertSameMessages("preRegistration");
+    }
+
+    /**
+     * The XSLT engine runs an XSLT per pattern for a selection of patterns,
+     * which gives the same messages as the native engine, and, for all
+     * patterns, as the XSLT of all rules.
+     */
+    @Test
+    public void sameMessages_patterns() throws Exception {
+        Set<String> some = new HashSet<>(Arrays.asList("c_card", "h_id", "item", "v_uri"));
+        Set<String> all = new HashSet<>(Arrays.asList("a_res", "a_sibs", "a_vs", "c_atts", "c_card", "c_csibs", "c_empty", "c_ref",
+                "c_sibs", "d_dsibs", "e_vs", "h_id", "h_succ", "item", "r_card", "v_uri"));
+        Validator xslt = super.createValidator();
+        Validator nativ = createValidator();
+        for (String doc : DOCS) {
+            assertEquals(doc, xslt.validateProfile(source(doc), some), nativ.validateProfile(source(doc), some));
+            assertSameMessages(doc, xslt.getMessages(), nativ.getMessages());
+            boolean valid = xslt.validateProfile(source(doc));
+            List<Message> messages = xslt.getMessages();
+            assertEquals(doc, valid, xslt.validateProfile(source(doc), all));
+            assertSameMessages(doc, messages, xslt.getMessages());
+        }
+    }
+
+    private static Validator createValidator(String schema, SchematronEngine engine) {
+        Validator validator = new Validator(TestCMDValidateNative.class.getResource("/schema/" + schema));
+        validator.setResourceResolver(new ResourceResolver());
+        validator.setSchematronEngine(engine);
+        return validator;
+    }
+
+    /**
+     * The lets and asserts of an abstract rule are evaluated where a rule
+     * extends it, also if it is declared in another pattern.
+     */
+    @Test
+    public void sameMessages_extends() throws Exception {
+        Validator xslt = createValidator("schematron-extends.xsd", SchematronEngine.XSLT);
+        Validator nativ = createValidator("schematron-extends.xsd", SchematronEngine.NATIVE);
+        assertFalse(xslt.validateProfile(new StreamSource(new StringReader(CONSTRUCTS))));
+        assertFalse(nativ.validateProfile(new StreamSource(new StringReader(CONSTRUCTS))));
+        List<Message> messages = xslt.getMessages();
+        assertEquals(7, messages.size());
+        assertSameMessages("extends", messages, nativ.getMessages());
+    }
+
+    /**
+     * Rules for attributes, which the XSLT engine never fires, and rules with
+     * current() in the context, for which it does report messages, make the
+     * native engine reject the schema, instead of skipping the rules.
+     */
+    @Test
+    public void unsupportedContexts() throws Exception {
+        String[] schemas = {"schematron-attribute.xsd", "schematron-current.xsd"};
+        int[] xsltMessages = {0, 2};
+        for (int i = 0; i < schemas.length; i++) {
+            String schema = schemas[i];
+            Validator xslt = createValidator(schema, SchematronEngine.XSLT);
+            assertEquals(schema, xsltMessages[i] == 0, xslt.validateProfile(new StreamSource(new StringReader(CONSTRUCTS))));
+            assertEquals(schema, xsltMessages[i], xslt.getMessages().size());
+            Validator nativ = createValidator(schema, SchematronEngine.NATIVE);
+            try {
+                nativ.initialize();
+                fail(schema);
+            } catch (ValidatorException ex) {
+                assertTrue(ex.getMessage(), ex.getMessage().contains("native Schematron engine"));
+            }
+        }
+    }
+
+    /**
+     * A vocabulary with thousands of items, some of them duplicates, checks
+     * that key() is an index lookup: comparing every item with every other
+     * item takes minutes instead of seconds.
+     */
+    @Test(timeout = 60000)
+    public void largeEnumeration() throws Exception {
+        final int size = 40000;
+        StringBuilder items = new StringBuilder();
+        for (int i = 0; i < size; i++) {
+            items.append("<item AppInfo=\"\" ConceptLink=\"\">value ").append(i % (size - 3)).append("</item>");
+        }
+        String doc = new String(Files.readAllBytes(new File(TestCMDValidateNative.class.getResource("/docs/CLARINWebService.xml").toURI()).toPath()), StandardCharsets.UTF_8)
+                .replace("<enumeration><item AppInfo=\"\" ConceptLink=\"\">1.0</item></enumeration>", "<enumeration>" + items + "</enumeration>");
+
+        Validator xslt = super.createValidator();
+        Validator nativ = createValidator();
+        xslt.initialize();
+        nativ.initialize();
+        long start = System.nanoTime();
+        assertFalse(xslt.validateProfile(new StreamSource(new StringReader(doc))));
+        long xsltMillis = (System.nanoTime() - start) / 1000000L;
+        start = System.nanoTime();
+        assertFalse(nativ.validateProfile(new StreamSource(new StringReader(doc))));
+        long nativeMillis = (System.nanoTime() - start) / 1000000L;
+        System.out.println("Enumeration of " + size + " items: XSLT engine " + xsltMillis + " ms, native engine " + nativeMillis + " ms");
+
+        List<Message> messages = nativ.getMessages();
+        assertEquals(6, messages.size());
+        assertSameMessages("large enumeration", xslt.getMessages(), messages);
+    }
+}
@@ -0,0 +1,248 @@
+package clarin.cmdi.schema.cmd;
+
+import clarin.cmdi.schema.cmd.Validator.Message;
+import clarin.cmdi.schema.cmd.Validator.SchematronEngine;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.xml.transform.stream.StreamSource;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Validates a mix of valid and faulty documents on 1 up to N threads, with
+ * Validators sharing the schema of one template, and checks that the results
+ * are the same as when validating on a single thread. Logs the throughput
+ * and the lock contention (how often and how long the workers were blocked on
+ * a monitor) per number of threads. The throughput depends on the machine, so
+ * it is only checked if the system property cmd-validate.stress.minSpeedup is
+ * set: the speedup on the most threads over a single thread must
+ * then be at least that much, e.g., 1.5 on a CI machine with 4 processors.
+ *
+ * The number of rounds over the documents per run can be set with the system
+ * property cmd-validate.stress.rounds, the maximum number of threads with
+ * cmd-validate.stress.threads (default: 4), e.g., to benchmark a machine with
+ * more processors.
+ *
+ * The initialization runs let all threads initialize a fresh template at the
+ * same time, for a selection of patterns, so the XSLT engine compiles the
+ * patterns lazily into the cache it shares with its copies.
+ */
+public class TestConcurrentValidation {
+
+    private static final int ROUNDS = Integer.getInteger("cmd-validate.stress.rounds", 4);
+    private static final int MAX_THREADS = Integer.getInteger("cmd-validate.stress.threads", 4);
+    private static final String MIN_SPEEDUP = System.getProperty("cmd-validate.stress.minSpeedup");
+
+    private static final Set<String> PATTERNS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList("c_card", "c_ref", "h_id", "v_uri")));
+
+    private static final String[] DOCS = {
+        "CLARINWebService.xml",
+        "CLARINWebService_faulty-1.xml",
+        "CLARINWebService_faulty-2.xml",
+        "CLARINWebService_faulty-3.xml",
+        "CLARINWebService_faulty-4.xml",
+        "CLARINWebService_faulty-5.xml",
+        "CLARINWebService_faulty-6.xml",
+        "CLARINWebService_faulty-7.xml",
+        "CLARINWebService_faulty-8.xml",
+        "CLARINWebService_faulty-9.xml",
+        "CLARINWebService_faulty-10.xml"
+    };
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    @BeforeClass
+    public static void setUpClass() {
+        if (THREADS.isThreadContentionMonitoringSupported()) {
+            THREADS.setThreadContentionMonitoringEnabled(true);
+        }
+    }
+
+    private static Validator createValidator(SchematronEngine engine) {
+        Validator validator = new Validator(TestConcurrentValidation.class.getResource("/schema/cmd-component.xsd"));
+        validator.setResourceResolver(new ResourceResolver());
+        validator.setSchematronEngine(engine);
+        return validator;
+    }
+
+    private static File doc(String prof) throws Exception {
+        return new File(TestConcurrentValidation.class.getResource("/docs/" + prof).toURI());
+    }
+
+    /**
+     * Describe a result, so results can be compared.
+     */
+    private static String describe(ValidationResult result) {
+        StringBuilder description = new StringBuilder(result.getStatus().label());
+        if (result.getFailure() != null) {
+            description.append(": ").append(result.getFailure());
+        }
+        for (Message msg : result.getMessages()) {
+            description.append('\n').append(msg.isError() ? "ERROR " : "WARNING ").append(msg.getContext()).append(' ').append(msg.getTest()).append(' ').append(msg.getLocation()).append(' ').append(msg.getText());
+        }
+        return description.toString();
+    }
+
+    /**
+     * The outcome of a run.
+     */
+    private static final class Run {
+
+        final Map<String, List<String>> results = new HashMap<>();
+        long nanos;
+        long blockedCount;
+        long blockedMillis;
+    }
+
+    /**
+     * Validate every document ROUNDS times on a number of threads, each with
+     * its own copy of the template.
+     *
+     * @param template The Validator to share the schema with
+     * @param threads The number of threads
+     * @param initialize Let all threads initialize the template at the same
+     * time first, to stress the lazy loading
+     * @param patterns The Schematron patterns to check, null for the phase
+     */
+    private static Run run(final Validator template, final int threads, final boolean initialize, final Set<String> patterns) throws Exception {
+        final String[] docs = DOCS;
+        final File[] files = new File[docs.length];
+        for (int i = 0; i < docs.length; i++) {
+            files[i] = doc(docs[i]);
+        }
+        final Run run = new Run();
+        for (String doc : docs) {
+            run.results.put(doc, new ArrayList<String>());
+        }
+        final int tasks = docs.length * ROUNDS;
+        final AtomicInteger next = new AtomicInteger();
+        final CyclicBarrier start = new CyclicBarrier(threads + 1);
+        final List<Throwable> errors = new ArrayList<>();
+        final Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        if (initialize) {
+                            template.initialize(patterns);
+                        }
+                        final Validator validator = new Validator(template);
+                        final ThreadInfo before = THREADS.getThreadInfo(Thread.currentThread().getId());
+                        for (int task = next.getAndIncrement(); task < tasks; task = next.getAndIncrement()) {
+                            final String doc = docs[task % docs.length];
+                            final String result = describe(validator.validate(doc, new StreamSource(files[task % docs.length]), patterns));
+                            synchronized (run) {
+                                run.results.get(doc).add(result);
+                            }
+                        }
+                        final ThreadInfo after = THREADS.getThreadInfo(Thread.currentThread().getId());
+                        synchronized (run) {
+                            run.blockedCount += after.getBlockedCount() - before.getBlockedCount();
+                            if (after.getBlockedTime() >= 0) {
+                                run.blockedMillis += after.getBlockedTime() - before.getBlockedTime();
+                            }
+                        }
+                    } catch (Throwable e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                }
+            }, "cmd-validate-stress-" + t);
+            workers[t].start();
+        }
+        start.await();
+        final long begin = System.nanoTime();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        run.nanos = System.nanoTime() - begin;
+        if (!errors.isEmpty()) {
+            throw new AssertionError("Worker failed: " + errors.get(0), errors.get(0));
+        }
+        return run;
+    }
+
+    private void stress(SchematronEngine engine, boolean initialize) throws Exception {
+        // the reference: a single Validator on this thread
+        final Validator reference = createValidator(engine);
+        final Set<String> patterns = initialize ? PATTERNS : null;
+        final Map<String, String> expected = new HashMap<>();
+        for (String doc : DOCS) {
+            expected.put(doc, describe(reference.validate(doc, new StreamSource(doc(doc)), patterns)));
+        }
+
+        System.out.println("Stress " + engine + (initialize ? ", concurrent initialization" : "") + ", " + DOCS.length * ROUNDS + " documents per run");
+        System.out.println(String.format("%8s %10s %10s %8s %12s %12s", "threads", "ms", "docs/s", "speedup", "blocked", "blocked ms"));
+        if (!initialize) {
+            // warm up the JIT, so it doesn't count against the single thread
+            final Validator template = createValidator(engine);
+            template.initialize();
+            run(template, MAX_THREADS, false, null);
+        }
+        double single = 0;
+        double speedup = 1;
+        int most = 1;
+        for (int threads = 1; threads <= MAX_THREADS; threads *= 2) {
+            final Validator template = createValidator(engine);
+            if (!initialize) {
+                template.initialize();
+            }
+            final Run run = run(template, threads, initialize, patterns);
+            for (Map.Entry<String, List<String>> result : run.results.entrySet()) {
+                assertEquals(result.getKey(), ROUNDS, result.getValue().size());
+                for (String actual : result.getValue()) {
+                    assertEquals(result.getKey() + " on " + threads + " threads", expected.get(result.getKey()), actual);
+                }
+            }
+            final double throughput = DOCS.length * ROUNDS / (run.nanos / 1e9);
+            if (threads == 1) {
+                single = throughput;
+            }
+            speedup = throughput / single;
+            most = threads;
+            System.out.println(String.format("%8d %10d %10.1f %8.2f %12d %12d", threads, run.nanos / 1000000L, throughput, speedup, run.blockedCount, run.blockedMillis));
+        }
+        // the initialization runs mostly measure the compilation, not the validation
+        if (MIN_SPEEDUP != null && !initialize && most > 1) {
+            final double minSpeedup = Double.parseDouble(MIN_SPEEDUP);
+            assertTrue(String.format("Speedup of %s on %d threads is %.2f, expected at least %s", engine, most, speedup, MIN_SPEEDUP), speedup >= minSpeedup);
+        }
+    }
+
+    @Test(timeout = 600000)
+    public void stressXslt() throws Exception {
+        stress(SchematronEngine.XSLT, false);
+    }
+
+    @Test(timeout = 600000)
+    public void stressNative() throws Exception {
+        stress(SchematronEngine.NATIVE, false);
+    }
+
+    @Test(timeout = 600000)
+    public void stressInitialization() throws Exception {
+        stress(SchematronEngine.NATIVE, true);
+    }
+
+    @Test(timeout = 600000)
+    public void stressInitializationXslt() throws Exception {
+        stress(SchematronEngine.XSLT, true);
+    }
+}
@@ -0,0 +1,106 @@
+package clarin.cmdi.schema.cmd;
+
+import clarin.cmdi.schema.cmd.Validator.Message;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Locale;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the output of the report writers for results with awkward messages.
+ */
+public class TestReportWriters {
+
+    private static Message message(boolean error, String context, String text) {
+        Message msg = new Message();
+        msg.error = error;
+        msg.context = context;
+        msg.test = "count(x) eq 1";
+        msg.location = "/ComponentSpec[1]";
+        msg.text = text;
+        return msg;
+    }
+
+    private static String write(ReportWriter.Format format, ValidationResult... results) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ReportWriter writer = format.newWriter(out)) {
+            for (ValidationResult result : results) {
+                writer.write(result);
+            }
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void jsonEscaping() throws Exception {
+        ValidationResult result = new ValidationResult("dir\\\"quoted\".xml", ValidationResult.Status.INVALID,
+                Arrays.asList(message(true, null, "line 1\nline 2\t\"x\" \\ \u0001 \u00e9")), 5, null);
+        assertEquals("{\"document\":\"dir\\\\\\\"quoted\\\".xml\",\"status\":\"invalid\",\"valid\":false,\"durationMs\":5,\"errors\":1,\"warnings\":0,"
+                + "\"messages\":[{\"error\":true,\"context\":null,\"test\":\"count(x) eq 1\",\"location\":\"/ComponentSpec[1]\","
+                + "\"text\":\"line 1\\nline 2\\t\\\"x\\\" \\\\ \\u0001 \u00e9\"}]}\n", write(ReportWriter.Format.JSONL, result));
+    }
+
+    @Test
+    public void jsonFailure() throws Exception {
+        ValidationResult result = new ValidationResult("a.xml", ValidationResult.Status.FAILED, null, 1, new ValidatorException("broken\r\n"));
+        String json = write(ReportWriter.Format.JSONL, result);
+        assertTrue(json, json.contains(",\"failure\":\"clarin.cmdi.schema.cmd.ValidatorException: broken\\r\\n\","));
+        assertTrue(json, json.endsWith("\"messages\":[]}\n"));
+    }
+
+    @Test
+    public void junitWellFormed() throws Exception {
+        ValidationResult valid = new ValidationResult("valid.xml", ValidationResult.Status.VALID,
+                Arrays.asList(message(false, "Element", "a warning with a bell \u0007")), 1000, null);
+        ValidationResult invalid = new ValidationResult("invalid\u0000.xml", ValidationResult.Status.INVALID,
+                Arrays.asList(message(true, "Element", "<b>&amp;\u001b[31m \ud800 \ud83d\ude00</b>")), 2, null);
+        ValidationResult failed = new ValidationResult("failed.xml", ValidationResult.Status.FAILED,
+                Collections.<Message>emptyList(), 3, new ValidatorException("escape \u001b"));
+        ValidationResult timeout = new ValidationResult("timeout.xml", ValidationResult.Status.TIMEOUT,
+                null, 4, new ValidationCancelledException("Timed out after 1 ms", true));
+
+        byte[] xml = write(ReportWriter.Format.JUNIT, valid, invalid, failed, timeout).getBytes(StandardCharsets.UTF_8);
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        Document report = factory.newDocumentBuilder().parse(new ByteArrayInputStream(xml));
+
+        NodeList testcases = report.getDocumentElement().getElementsByTagName("testcase");
+        assertEquals(4, testcases.getLength());
+        assertEquals("1.000", ((Element) testcases.item(0)).getAttribute("time"));
+        assertEquals("a warning with a bell \uFFFD", ((Element) testcases.item(0)).getElementsByTagName("system-out").item(0).getTextContent().split("\n")[1].trim());
+        Element failure = (Element) ((Element) testcases.item(1)).getElementsByTagName("failure").item(0);
+        assertEquals("invalid\uFFFD.xml", ((Element) testcases.item(1)).getAttribute("name"));
+        assertTrue(failure.getTextContent(), failure.getTextContent().contains("<b>&amp;\uFFFD[31m \uFFFD \ud83d\ude00</b>"));
+        assertEquals("escape \uFFFD", ((Element) ((Element) testcases.item(2)).getElementsByTagName("error").item(0)).getAttribute("message"));
+        assertEquals("timeout", ((Element) ((Element) testcases.item(3)).getElementsByTagName("error").item(0)).getAttribute("type"));
+    }
+
+    @Test
+    public void text() throws Exception {
+        ValidationResult result = new ValidationResult("a.xml", ValidationResult.Status.INVALID,
+                Arrays.asList(message(true, null, "wrong")), 1, null);
+        assertEquals(String.format("CMD validate[a.xml] invalid%nERROR at /ComponentSpec[1]%n  wrong%n"), write(ReportWriter.Format.TEXT, result));
+    }
+
+    @Test
+    public void namesUnderTurkishLocale() {
+        Locale locale = Locale.getDefault();
+        try {
+            Locale.setDefault(new Locale("tr", "TR"));
+            assertEquals(ReportWriter.Format.JUNIT, ReportWriter.Format.forName("junit"));
+            assertEquals(ReportWriter.Format.JSONL, ReportWriter.Format.forName("JSONL"));
+            assertEquals("invalid", ValidationResult.Status.INVALID.label());
+            assertTrue(ArchiveReader.isArchive("COMPONENTS.ZIP"));
+        } finally {
+            Locale.setDefault(locale);
+        }
+    }
+}
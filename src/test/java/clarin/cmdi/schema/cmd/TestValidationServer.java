@@ -0,0 +1,148 @@
+package clarin.cmdi.schema.cmd;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+/**
+ * Sends requests to a daemon on a free local port, and checks that it only
+ * reads files below its root.
+ */
+public class TestValidationServer {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ValidationServer server;
+    private Thread serving;
+    private Path root;
+    private Path outside;
+
+    private static Path doc(String prof) throws Exception {
+        return new File(TestValidationServer.class.getResource("/docs/" + prof).toURI()).toPath();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        root = folder.newFolder("root").toPath();
+        outside = folder.newFolder("outside").toPath();
+        Files.copy(doc("CLARINWebService.xml"), root.resolve("valid.xml"));
+        Files.copy(doc("CLARINWebService_faulty-1.xml"), root.resolve("invalid.xml"));
+        Files.copy(doc("CLARINWebService.xml"), outside.resolve("secret.xml"));
+
+        Validator validator = new Validator(getClass().getResource("/schema/cmd-component.xsd"));
+        validator.setResourceResolver(new ResourceResolver());
+        validator.initialize();
+        server = new ValidationServer(validator, ReportWriter.Format.JSONL, null, Collections.singletonList(root), 0, 2);
+        serving = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                server.serve();
+            }
+        });
+        serving.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+        serving.join(10000);
+    }
+
+    private String[] request(String... files) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ValidationServer.request(server.getPort(), Arrays.asList(files), out);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n");
+    }
+
+    @Test
+    public void validate() throws Exception {
+        String[] report = request(root.resolve("valid.xml").toString(), root.resolve("invalid.xml").toString());
+        assertEquals(2, report.length);
+        assertTrue(report[0], report[0].contains("\"status\":\"valid\""));
+        assertTrue(report[1], report[1].contains("\"status\":\"invalid\""));
+    }
+
+    /**
+     * Send a raw request, and read the report.
+     */
+    private String[] send(String request) throws Exception {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+            socket.getOutputStream().write(request.getBytes(StandardCharsets.UTF_8));
+            socket.getOutputStream().flush();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            InputStream in = socket.getInputStream();
+            byte[] buffer = new byte[8192];
+            for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                out.write(buffer, 0, n);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n");
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void idleConnection() throws Exception {
+        server.setReadTimeout(200);
+        // a request that is never finished
+        String[] report = send(root.resolve("valid.xml") + "\n");
+        assertEquals(2, report.length);
+        assertTrue(report[0], report[0].contains("\"status\":\"valid\""));
+        assertTrue(report[1], report[1].contains("\"status\":\"failed\""));
+        assertTrue(report[1], report[1].contains("No line of the request within 200 ms"));
+    }
+
+    @Test(timeout = 60000)
+    public void longLine() throws Exception {
+        StringBuilder line = new StringBuilder(root.toString()).append('/');
+        while (line.length() <= ValidationServer.MAX_LINE) {
+            line.append('a');
+        }
+        String[] report = send(line + "\n" + root.resolve("valid.xml") + "\n\n");
+        assertEquals(1, report.length);
+        assertTrue(report[0], report[0].contains("\"status\":\"failed\""));
+        assertTrue(report[0], report[0].contains("longer than " + ValidationServer.MAX_LINE + " characters"));
+    }
+
+    @Test(timeout = 60000)
+    public void tooManyFiles() throws Exception {
+        StringBuilder request = new StringBuilder();
+        for (int i = 0; i <= ValidationServer.MAX_FILES; i++) {
+            request.append(root.resolve("missing.xml")).append('\n');
+        }
+        String[] report = send(request.append('\n').toString());
+        assertEquals(ValidationServer.MAX_FILES + 1, report.length);
+        assertTrue(report[ValidationServer.MAX_FILES], report[ValidationServer.MAX_FILES].contains("More than " + ValidationServer.MAX_FILES + " files"));
+    }
+
+    @Test
+    public void outsideRoot() throws Exception {
+        Files.createSymbolicLink(root.resolve("link.xml"), outside.resolve("secret.xml"));
+        String[] report = request(
+                outside.resolve("secret.xml").toString(),
+                root.resolve("../outside/secret.xml").toString(),
+                root.resolve("link.xml").toString(),
+                root.resolve("missing.xml").toString(),
+                root.toString(),
+                root.resolve("valid.xml").toString());
+        assertEquals(6, report.length);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(report[i], report[i].contains("\"status\":\"failed\""));
+            assertTrue(report[i], report[i].contains("Not a file below the roots of the daemon"));
+        }
+        assertTrue(report[5], report[5].contains("\"status\":\"valid\""));
+    }
+}
@@ -0,0 +1,93 @@
+package clarin.cmdi.schema.cmd;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+/**
+ * Watches a directory, and checks that existing, new and modified files are
+ * validated.
+ */
+public class TestValidationWatcher {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Path doc(String prof) throws Exception {
+        return new File(TestValidationWatcher.class.getResource("/docs/" + prof).toURI()).toPath();
+    }
+
+    private static ValidationResult next(BlockingQueue<ValidationResult> results) throws InterruptedException {
+        ValidationResult result = results.poll(60, TimeUnit.SECONDS);
+        assertNotNull("No result in time", result);
+        return result;
+    }
+
+    @Test(timeout = 300000)
+    public void watch() throws Exception {
+        final Path dir = folder.newFolder("watched").toPath();
+        Files.copy(doc("CLARINWebService.xml"), dir.resolve("a.xml"));
+        Files.copy(doc("CLARINWebService.xml"), dir.resolve("ignored.txt"));
+
+        final Validator validator = new Validator(getClass().getResource("/schema/cmd-component.xsd"));
+        validator.setResourceResolver(new ResourceResolver());
+        final BlockingQueue<ValidationResult> results = new LinkedBlockingQueue<>();
+        final ReportWriter report = new ReportWriter() {
+            @Override
+            public void write(ValidationResult result) {
+                results.add(result);
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        final Throwable[] failure = new Throwable[1];
+        Thread watching = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    new ValidationWatcher(validator, report, null).watch(dir);
+                } catch (Throwable e) {
+                    failure[0] = e;
+                }
+            }
+        });
+        watching.start();
+        try {
+            ValidationResult result = next(results);
+            assertEquals(dir.resolve("a.xml").toString(), result.getDocument());
+            assertEquals(ValidationResult.Status.VALID, result.getStatus());
+
+            // a new file in a new directory
+            Path sub = Files.createDirectory(dir.resolve("sub"));
+            Files.copy(doc("CLARINWebService_faulty-1.xml"), sub.resolve("b.xml"));
+            result = next(results);
+            assertEquals(sub.resolve("b.xml").toString(), result.getDocument());
+            assertEquals(ValidationResult.Status.INVALID, result.getStatus());
+
+            // a modified file, also with the same modification time
+            FileTime modified = Files.getLastModifiedTime(dir.resolve("a.xml"));
+            Files.copy(doc("CLARINWebService_faulty-1.xml"), dir.resolve("a.xml"), StandardCopyOption.REPLACE_EXISTING);
+            Files.setLastModifiedTime(dir.resolve("a.xml"), modified);
+            result = next(results);
+            assertEquals(dir.resolve("a.xml").toString(), result.getDocument());
+            assertEquals(ValidationResult.Status.INVALID, result.getStatus());
+        } finally {
+            watching.interrupt();
+            watching.join(10000);
+        }
+        assertFalse("The watcher didn't stop", watching.isAlive());
+        assertNull(String.valueOf(failure[0]), failure[0]);
+    }
+}
@@ -1,7 +1,7 @@
 #!/bin/sh
 if [[ $# == 0 ]]
 then
-	echo "Usage: $0 [-s schema url] files..."
+	echo "Usage: $0 [-s schema url] [-f text|jsonl|junit] [--daemon port | --client port | --watch directory] files..."
 	exit 1;
 fi
 